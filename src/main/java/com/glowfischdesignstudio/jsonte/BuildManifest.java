@@ -0,0 +1,283 @@
+package com.glowfischdesignstudio.jsonte;
+
+import com.glowfischdesignstudio.jsonte.exception.JsonTemplatingException;
+import com.glowfischdesignstudio.jsonte.utils.PipeExtensions;
+import com.stirante.justpipe.Pipe;
+import com.stirante.justpipe.exception.RuntimeIOException;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Manifest of an incremental build, kept in the cache directory. For each template it records hashes of the template,
+ * the modules and files it used and the options of the build, together with the outputs it produced.
+ * <p>
+ * Templates and outputs are recorded by their absolute normalized paths, so the manifest doesn't depend on the working
+ * directory of the build.
+ * <p>
+ * Inputs are expected not to change during a build, so the hash of each input is computed once.
+ */
+class BuildManifest {
+    static final String FILE_NAME = ".jsonte-manifest.json";
+    private static final int VERSION = 2;
+    private static final String MISSING = "missing";
+
+    private final File file;
+    private final String options;
+    private final JSONObject previous;
+    private final JSONObject templates = new JSONObject();
+    private final Map<String, String> modules = new HashMap<>();
+    private final Map<String, String> states = new ConcurrentHashMap<>();
+    private final Set<String> staleOutputs = new HashSet<>();
+
+    private BuildManifest(File file, String options, JSONObject previous) {
+        this.file = file;
+        this.options = options;
+        this.previous = previous;
+    }
+
+    /**
+     * Loads the manifest from the cache directory, or creates an empty one, if there is none.
+     *
+     * @param cache   The cache directory.
+     * @param options Hash of everything besides templates, modules and files, that affects the outputs.
+     * @return The manifest
+     */
+    static BuildManifest load(File cache, String options) {
+        File file = new File(cache, FILE_NAME);
+        JSONObject previous = new JSONObject();
+        if (file.isFile()) {
+            try {
+                JSONObject manifest = Pipe.from(file).to(PipeExtensions.JSON_OBJECT);
+                if (manifest.optInt("version") == VERSION) {
+                    previous = manifest.optJSONObject("templates");
+                    if (!options.equals(manifest.optString("options"))) {
+                        // Outputs are still tracked, so they can be removed, but every template is processed again
+                        for (String template : previous.keySet()) {
+                            previous.getJSONObject(template).remove("hash");
+                        }
+                    }
+                }
+            } catch (Exception e) {
+                System.err.println("Ignoring invalid build manifest: " + e.getMessage());
+            }
+        }
+        return new BuildManifest(file, options, previous != null ? previous : new JSONObject());
+    }
+
+    void putModule(String name, String hash) {
+        modules.put(name, hash);
+    }
+
+    /**
+     * Returns whether the outputs of the template are up to date. Safe to call from multiple threads, once all modules
+     * have been added.
+     *
+     * @param template The template.
+     * @param hash     Hash of the template.
+     */
+    boolean isUpToDate(File template, String hash) {
+        JSONObject entry = previous.optJSONObject(key(template));
+        if (entry == null || !hash.equals(entry.optString("hash", null))) {
+            return false;
+        }
+        JSONObject dependencies = entry.getJSONObject("dependencies");
+        for (String dependency : dependencies.keySet()) {
+            if (!dependencies.getString(dependency).equals(getState(dependency))) {
+                return false;
+            }
+        }
+        for (Object output : entry.getJSONArray("outputs")) {
+            if (!new File((String) output).isFile()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the dependencies recorded for a template by the previous build.
+     */
+    Set<String> getDependencies(File template) {
+        JSONObject entry = previous.optJSONObject(key(template));
+        return entry != null ? entry.getJSONObject("dependencies").keySet() : Collections.emptySet();
+    }
+
+    /**
+     * Returns the outputs recorded for a template by the previous build.
+     */
+    List<File> getOutputs(File template) {
+        JSONObject entry = previous.optJSONObject(key(template));
+        if (entry == null) {
+            return Collections.emptyList();
+        }
+        return entry.getJSONArray("outputs").toList().stream().map(o -> new File((String) o)).collect(Collectors.toList());
+    }
+
+    /**
+     * Creates an entry for a processed template. Hashes of the dependencies are computed right away, so it's best to
+     * call it on the thread, that processed the template.
+     */
+    JSONObject createEntry(String hash, Set<String> dependencies, Collection<File> outputs) {
+        JSONObject states = new JSONObject();
+        for (String dependency : new TreeSet<>(dependencies)) {
+            states.put(dependency, getState(dependency));
+        }
+        return new JSONObject()
+                .put("hash", hash)
+                .put("dependencies", states)
+                .put("outputs", new JSONArray(outputs.stream().map(BuildManifest::key).collect(Collectors.toList())));
+    }
+
+    /**
+     * Records a processed template. Outputs, that it doesn't produce anymore, are removed when saving.
+     */
+    void put(File file, JSONObject entry) {
+        String template = key(file);
+        JSONObject old = previous.optJSONObject(template);
+        if (old != null) {
+            Set<Object> outputs = new HashSet<>(entry.getJSONArray("outputs").toList());
+            for (Object output : old.getJSONArray("outputs")) {
+                if (!outputs.contains(output)) {
+                    staleOutputs.add((String) output);
+                }
+            }
+        }
+        templates.put(template, entry);
+    }
+
+    /**
+     * Keeps the entry of a template, that was up to date.
+     */
+    void keep(File file) {
+        String template = key(file);
+        templates.put(template, previous.getJSONObject(template));
+    }
+
+    /**
+     * Keeps the outputs of a template, that failed, but makes sure it's processed again by the next build.
+     */
+    void fail(File file) {
+        String template = key(file);
+        JSONObject old = previous.optJSONObject(template);
+        if (old != null) {
+            old.remove("hash");
+            templates.put(template, old);
+        }
+    }
+
+    /**
+     * Removes outputs of templates, that don't exist anymore, and saves the manifest. Templates, that still exist, but
+     * weren't part of this build, are kept as they were.
+     *
+     * @return The number of removed templates
+     */
+    int save() {
+        int removed = 0;
+        for (String template : previous.keySet()) {
+            if (templates.has(template)) {
+                continue;
+            }
+            if (new File(template).exists()) {
+                templates.put(template, previous.getJSONObject(template));
+            }
+            else {
+                for (Object output : previous.getJSONObject(template).getJSONArray("outputs")) {
+                    staleOutputs.add((String) output);
+                }
+                removed++;
+            }
+        }
+        for (String template : templates.keySet()) {
+            for (Object output : templates.getJSONObject(template).getJSONArray("outputs")) {
+                // Another template writes the same file
+                staleOutputs.remove(output);
+            }
+        }
+        staleOutputs.forEach(BuildManifest::delete);
+        JSONObject manifest = new JSONObject()
+                .put("version", VERSION)
+                .put("options", options)
+                .put("templates", templates);
+        RuntimeIOException.wrap(() -> Pipe.from(manifest.toString()).to(file));
+        return removed;
+    }
+
+    private static String key(File file) {
+        return file.toPath().toAbsolutePath().normalize().toString();
+    }
+
+    private static void delete(String output) {
+        File f = new File(output);
+        if (f.exists()) {
+            System.out.println("Removing " + f.getPath());
+            if (!f.delete()) {
+                System.out.println("Failed to remove " + f.getPath());
+            }
+        }
+    }
+
+    private String getState(String dependency) {
+        return states.computeIfAbsent(dependency, this::computeState);
+    }
+
+    private String computeState(String dependency) {
+        if (dependency.startsWith(Dependencies.MODULE)) {
+            return modules.getOrDefault(dependency.substring(Dependencies.MODULE.length()), MISSING);
+        }
+        try {
+            if (dependency.startsWith(Dependencies.FILE)) {
+                Path path = new File(dependency.substring(Dependencies.FILE.length())).toPath();
+                return Files.isRegularFile(path) ? hash(Files.readAllBytes(path)) : MISSING;
+            }
+            else if (dependency.startsWith(Dependencies.DIRECTORY)) {
+                String[] list = new File(dependency.substring(Dependencies.DIRECTORY.length())).list();
+                if (list == null) {
+                    return MISSING;
+                }
+                Arrays.sort(list);
+                return hash(String.join("\n", list));
+            }
+            else if (dependency.startsWith(Dependencies.TREE)) {
+                Path path = new File(dependency.substring(Dependencies.TREE.length())).toPath();
+                if (!Files.isDirectory(path)) {
+                    return MISSING;
+                }
+                try (Stream<Path> files = Files.walk(path)) {
+                    return hash(files.map(p -> path.relativize(p).toString()).sorted().collect(Collectors.joining("\n")));
+                }
+            }
+        } catch (IOException e) {
+            return MISSING;
+        }
+        throw new JsonTemplatingException("Unknown dependency " + dependency);
+    }
+
+    static String hash(String content) {
+        return hash(content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    static String hash(byte[] content) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(content);
+            StringBuilder sb = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.glowfischdesignstudio.jsonte;
+
+import org.json.JSONObject;
+
+import java.util.Deque;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * An expression compiled to a tree of nodes. It doesn't hold any state of an evaluation, so it can be evaluated
+ * against different scopes from any thread.
+ * <p>
+ * Expressions start in the interpreted tier. Once an expression has been evaluated more times than the tier-up
+ * threshold, its tree is replaced with an optimized one (constants folded, branches with constant conditions
+ * pruned and global functions bound up front). Tiering can be disabled with {@link #setInterpretOnly(boolean)} or
+ * the <code>jsonte.interpretOnly</code> system property.
+ */
+public class CompiledExpression {
+    private static final int TIER_UP_THRESHOLD = Integer.getInteger("jsonte.tierUpThreshold", 1000);
+    private static final AtomicLong OPTIMIZED_COUNT = new AtomicLong();
+    private static volatile boolean interpretOnly = Boolean.getBoolean("jsonte.interpretOnly");
+
+    private volatile ExpressionNode root;
+    private volatile boolean optimized = false;
+    // Counted from all render threads, so updates don't contend on a single field
+    private final LongAdder evaluations = new LongAdder();
+    private final JsonAction action;
+    private final String name;
+
+    CompiledExpression(ExpressionNode root, JsonAction action, String name) {
+        this.root = root;
+        this.action = action;
+        this.name = name;
+    }
+
+    /**
+     * Evaluates the expression
+     *
+     * @param extraScope   The extra scope to resolve the reference within (like iteration scope)
+     * @param fullScope    The scope to resolve the reference within
+     * @param thisInstance The current instance of the object
+     * @param path         The path to the reference
+     * @return The result of the evaluation
+     */
+    public ReferenceResult evaluate(JSONObject extraScope, JSONObject fullScope, Deque<Object> thisInstance, String path) {
+        return evaluate(ScopeFrame.of(extraScope), fullScope, thisInstance, path, null);
+    }
+
+    ReferenceResult evaluate(ScopeFrame extraScope, JSONObject fullScope, Deque<Object> thisInstance, String path, RenderContext context) {
+        evaluations.increment();
+        if (!optimized && !interpretOnly && evaluations.sum() >= TIER_UP_THRESHOLD) {
+            tierUp();
+        }
+        EvaluationContext ctx = new EvaluationContext(extraScope, fullScope, thisInstance, path, action, context);
+        return new ReferenceResult(root.evaluate(ctx), action, name);
+    }
+
+    private synchronized void tierUp() {
+        if (optimized) {
+            return;
+        }
+        root = root.optimize();
+        optimized = true;
+        OPTIMIZED_COUNT.incrementAndGet();
+    }
+
+    public JsonAction getAction() {
+        return action;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns how many times this expression has been evaluated.
+     *
+     * @return The number of evaluations
+     */
+    public long getEvaluationCount() {
+        return evaluations.sum();
+    }
+
+    /**
+     * Returns whether this expression has been moved to the optimized tier.
+     *
+     * @return Whether this expression is optimized
+     */
+    public boolean isOptimized() {
+        return optimized;
+    }
+
+    /**
+     * Returns how many expressions have been moved to the optimized tier.
+     *
+     * @return The number of optimized expressions
+     */
+    public static long getOptimizedCount() {
+        return OPTIMIZED_COUNT.get();
+    }
+
+    /**
+     * Returns the number of evaluations, after which an expression is optimized.
+     */
+    public static int getTierUpThreshold() {
+        return TIER_UP_THRESHOLD;
+    }
+
+    /**
+     * Sets whether expressions should always stay in the interpreted tier.
+     *
+     * @param interpretOnly Whether to disable optimizing hot expressions
+     */
+    public static void setInterpretOnly(boolean interpretOnly) {
+        CompiledExpression.interpretOnly = interpretOnly;
+    }
+
+    public static boolean isInterpretOnly() {
+        return interpretOnly;
+    }
+}
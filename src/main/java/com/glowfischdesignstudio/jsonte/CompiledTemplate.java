@@ -0,0 +1,273 @@
+package com.glowfischdesignstudio.jsonte;
+
+import com.glowfischdesignstudio.jsonte.exception.JsonTemplatingException;
+import com.glowfischdesignstudio.jsonte.utils.JsonUtils;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * A template parsed and prepared once, that can be rendered many times with different scopes.
+ * <p>
+ * Compiling a template parses its JSON and every expression in it up front, so rendering only does the work that
+ * depends on the scope. Templates without any expressions are rendered once while compiling. Rendering doesn't modify
+ * the compiled template, so it's safe to render the same template from multiple threads. Which parts of the template
+ * are static is found out once too, and the static parts are rendered while compiling.
+ */
+public class CompiledTemplate {
+    private final String name;
+    private final String source;
+    private final JSONObject root;
+    private final Map<String, JsonModule> modules;
+    private final Map<String, CompiledExpression> expressions;
+    private final RenderContext compiled;
+    private final Object staticOutput;
+
+    private CompiledTemplate(String name, String source, JSONObject root, Map<String, JsonModule> modules, Map<String, CompiledExpression> expressions, RenderContext compiled, Object staticOutput) {
+        this.name = name;
+        this.source = source;
+        this.root = root;
+        this.modules = modules;
+        this.expressions = expressions;
+        this.compiled = compiled;
+        this.staticOutput = staticOutput;
+    }
+
+    /**
+     * Compiles a template.
+     *
+     * @param name    Name of the template.
+     * @param source  Source of the template.
+     * @param modules Modules available to the template.
+     * @return The compiled template.
+     * @throws JsonTemplatingException If an expression, that is evaluated while rendering, has a syntax error
+     */
+    public static CompiledTemplate compile(String name, String source, Map<String, JsonModule> modules) {
+        JSONObject root = JsonProcessor.parseTemplate(name, source);
+        Map<String, CompiledExpression> expressions = new HashMap<>();
+        Map<String, StringTemplate> strings = new HashMap<>();
+        collectRoot(root, expressions, strings);
+        RenderContext compiled = new RenderContext(Long.MAX_VALUE, expressions, strings);
+        if (root.opt("$template") instanceof JSONObject) {
+            JSONObject template = root.getJSONObject("$template");
+            if (!root.has("$copy") && !root.has("$extend")) {
+                // Rendering removes nulls first, so the template without them is the one, whose parts are rendered.
+                // Nulls of a template merged with other one remove fields of it, so they are kept there.
+                template = JsonUtils.withoutNulls(template);
+                root.put("$template", template);
+            }
+            compiled.prepare(template);
+        }
+        Object staticOutput = null;
+        if (isStatic(root)) {
+            JSONObject template = (JSONObject) JsonUtils.copyJson(root.get("$template"));
+            JsonUtils.removeNulls(template);
+            try {
+                staticOutput = JsonProcessor.processJson(name, source, new JSONObject().put("$template", template),
+                        new JSONObject(), Collections.emptyMap(), RenderContext.withTimeout(0)).get(name);
+            } catch (IOException e) {
+                throw new JsonTemplatingException("Could not compile the " + name + " template!", e);
+            }
+        }
+        return new CompiledTemplate(name, source, root, new HashMap<>(modules), expressions, compiled, staticOutput);
+    }
+
+    /**
+     * Renders the template without a timeout.
+     *
+     * @param scope Global scope to use.
+     * @return The map of name to processed JSON, that must not be modified, see {@link #render(JSONObject, long)}.
+     * @throws IOException If required files could not be read while processing.
+     */
+    public Map<String, Object> render(JSONObject scope) throws IOException {
+        return render(scope, 0);
+    }
+
+    /**
+     * Renders the template. Like with {@link JsonProcessor#processJson(String, String, JSONObject, long, Map)}, parts of
+     * the result can be shared with the compiled template, the scope and results of other renderings, so the result
+     * must be copied with {@link JsonUtils#copyJson(Object)} before modifying it. The output of a static template is
+     * the same object for every rendering.
+     *
+     * @param scope   Global scope to use.
+     * @param timeout Timeout for the processing in milliseconds. Zero or less means no timeout.
+     * @return The map of name to processed JSON, that must not be modified.
+     * @throws IOException If required files could not be read while processing.
+     */
+    public Map<String, Object> render(JSONObject scope, long timeout) throws IOException {
+        if (staticOutput != null) {
+            Map<String, Object> result = new HashMap<>();
+            result.put(name, staticOutput);
+            return result;
+        }
+        return JsonProcessor.processJson(name, source, root, scope, modules, RenderContext.withTimeout(timeout).withCompiled(compiled));
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns whether the output of this template doesn't depend on the scope.
+     *
+     * @return Whether the template is static
+     */
+    public boolean isStatic() {
+        return staticOutput != null;
+    }
+
+    /**
+     * Returns how many expressions were compiled ahead of time.
+     *
+     * @return The number of compiled expressions
+     */
+    public int getExpressionCount() {
+        return expressions.size();
+    }
+
+    private static boolean isStatic(JSONObject root) {
+        return root.has("$template") && root.get("$template") instanceof JSONObject && !root.has("$copy") &&
+                !root.has("$extend") && !root.has("$files") && RenderContext.isStaticValue(root.get("$template"));
+    }
+
+    /**
+     * Parses the expressions of the parts of the root, that are evaluated while rendering.
+     */
+    private static void collectRoot(JSONObject root, Map<String, CompiledExpression> expressions, Map<String, StringTemplate> strings) {
+        if (root.has("$template")) {
+            collectExpressions(root.get("$template"), "$template", true, expressions, strings);
+        }
+        if (root.opt("$files") instanceof JSONObject) {
+            JSONObject files = root.getJSONObject("$files");
+            if (files.opt("array") instanceof String) {
+                // The array is an expression without the braces
+                compileInto(files.getString("array"), "$files.array", true, expressions);
+            }
+            if (files.opt("fileName") instanceof String) {
+                collectString(files.getString("fileName"), "$files.fileName", false, true, expressions, strings);
+            }
+        }
+        if (root.opt("$copy") instanceof String) {
+            collectString(root.getString("$copy"), "$copy", false, true, expressions, strings);
+        }
+        Object extend = root.opt("$extend");
+        if (extend instanceof String) {
+            collectExtend((String) extend, "$extend", expressions, strings);
+        }
+        else if (extend instanceof JSONArray) {
+            JSONArray arr = (JSONArray) extend;
+            for (int i = 0; i < arr.length(); i++) {
+                if (arr.get(i) instanceof String) {
+                    collectExtend(arr.getString(i), "$extend[" + i + "]", expressions, strings);
+                }
+            }
+        }
+    }
+
+    private static void collectExtend(String s, String path, Map<String, CompiledExpression> expressions, Map<String, StringTemplate> strings) {
+        // Names of modules aren't evaluated, unless they are a single expression
+        if (s.contains("{{") && getString(s, strings).isAction()) {
+            compileInto(s, path, true, expressions);
+        }
+    }
+
+    /**
+     * Parses the expressions and strings of an element of a template, so they are parsed once instead of on every
+     * rendering. Comments are skipped, because they are never rendered.
+     *
+     * @param element     The element.
+     * @param path        Path to the element, used in syntax errors.
+     * @param strict      Whether to throw syntax errors. Otherwise, they are reported when the element is rendered.
+     * @param expressions Map to put the compiled expressions into.
+     * @param strings     Map to put the split strings into.
+     */
+    static void collectExpressions(Object element, String path, boolean strict, Map<String, CompiledExpression> expressions, Map<String, StringTemplate> strings) {
+        if (element instanceof JSONObject) {
+            JSONObject obj = (JSONObject) element;
+            for (String key : obj.keySet()) {
+                if (key.startsWith("$comment")) {
+                    continue;
+                }
+                // Keys are evaluated whole, when they are a single expression
+                collectString(key, path, key.contains("{{") && getString(key, strings).isAction(), strict, expressions, strings);
+                collectExpressions(obj.get(key), path + "/" + key, strict, expressions, strings);
+            }
+        }
+        else if (element instanceof JSONArray) {
+            JSONArray arr = (JSONArray) element;
+            for (int i = 0; i < arr.length(); i++) {
+                Object o = arr.get(i);
+                String itemPath = path + "[" + i + "]";
+                String action = o instanceof JSONObject ? getArrayAction((JSONObject) o) : null;
+                if (action != null) {
+                    collectString(action, itemPath, true, strict, expressions, strings);
+                    collectExpressions(((JSONObject) o).get(action), itemPath + "/" + action, strict, expressions, strings);
+                }
+                else if (o instanceof String) {
+                    String s = (String) o;
+                    collectString(s, itemPath, s.startsWith("{{") && s.endsWith("}}"), strict, expressions, strings);
+                }
+                else {
+                    collectExpressions(o, itemPath, strict, expressions, strings);
+                }
+            }
+        }
+        else if (element instanceof String) {
+            collectString((String) element, path, false, strict, expressions, strings);
+        }
+    }
+
+    /**
+     * Returns the key of an object in an array, that is rendered like an action, or null.
+     */
+    private static String getArrayAction(JSONObject obj) {
+        String action = null;
+        for (String key : obj.keySet()) {
+            if (!key.startsWith("$comment")) {
+                if (action != null) {
+                    return null;
+                }
+                action = key;
+            }
+        }
+        return action != null && action.startsWith("{{") && action.endsWith("}}") ? action : null;
+    }
+
+    /**
+     * Parses a string and its expressions.
+     *
+     * @param whole Whether the whole string is evaluated as a single expression instead of each of its expressions.
+     */
+    private static void collectString(String s, String path, boolean whole, boolean strict, Map<String, CompiledExpression> expressions, Map<String, StringTemplate> strings) {
+        if (!s.contains("{{")) {
+            return;
+        }
+        if (s.startsWith("{{") && s.endsWith("}}")) {
+            compileInto(s, path, strict && whole, expressions);
+        }
+        StringTemplate string = getString(s, strings);
+        for (int i = 0; i < string.getExpressionCount(); i++) {
+            compileInto(string.getExpression(i), path, strict && !whole, expressions);
+        }
+    }
+
+    private static StringTemplate getString(String s, Map<String, StringTemplate> strings) {
+        return strings.computeIfAbsent(s, StringTemplate::parse);
+    }
+
+    private static void compileInto(String src, String path, boolean strict, Map<String, CompiledExpression> expressions) {
+        if (expressions.containsKey(src)) {
+            return;
+        }
+        try {
+            expressions.put(src, JsonProcessor.compileExpression(src, path));
+        } catch (JsonTemplatingException e) {
+            // Strings, that look like expressions, but aren't evaluated, are allowed to have syntax errors
+            if (strict) {
+                throw e;
+            }
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.glowfischdesignstudio.jsonte;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Results of templates copied with <code>$copy</code> during a single build. A template copied many times with the
+ * same scope and modules is rendered once. Threads don't wait for a template, that is being rendered by another
+ * thread, they render it on their own instead, so a template copying itself fails the same way as without the cache.
+ * <p>
+ * Files, scopes and modules must not change while the cache is in use. Scopes and modules are compared by identity, so
+ * templates sharing the global scope share the results.
+ */
+final class CopyCache {
+    private final Map<Key, FutureTask<Entry>> entries = new ConcurrentHashMap<>();
+
+    /**
+     * Returns the result of a copied template. Dependencies recorded while rendering it are recorded again for every
+     * template, that copies it.
+     *
+     * @param path    Path to the copied template.
+     * @param scope   Scope the template is rendered with.
+     * @param modules Modules available to the template.
+     * @param render  Renders the template.
+     * @return The map of name to processed JSON, that is shared by all templates copying it and must not be modified
+     */
+    Map<String, Object> get(String path, Object scope, Object modules, Render render) throws IOException {
+        Key key = new Key(path, scope, modules);
+        FutureTask<Entry> task = new FutureTask<>(() -> {
+            Set<String> dependencies = ConcurrentHashMap.newKeySet();
+            Set<String> previous = Dependencies.track(dependencies);
+            try {
+                return new Entry(Collections.unmodifiableMap(render.render()), dependencies);
+            } finally {
+                Dependencies.track(previous);
+            }
+        });
+        FutureTask<Entry> existing = entries.putIfAbsent(key, task);
+        if (existing != null && existing.isDone()) {
+            task = existing;
+        }
+        else {
+            task.run();
+        }
+        Entry entry;
+        try {
+            entry = task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            // Failures aren't cached, the next template copying it gets the error of its own rendering
+            entries.remove(key, task);
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw (Error) cause;
+        }
+        Set<String> current = Dependencies.current();
+        if (current != null) {
+            current.addAll(entry.dependencies);
+        }
+        return entry.result;
+    }
+
+    @FunctionalInterface
+    interface Render {
+        Map<String, Object> render() throws IOException;
+    }
+
+    private static final class Entry {
+        private final Map<String, Object> result;
+        private final Set<String> dependencies;
+
+        private Entry(Map<String, Object> result, Set<String> dependencies) {
+            this.result = result;
+            this.dependencies = dependencies;
+        }
+    }
+
+    private static final class Key {
+        private final String path;
+        private final Object scope;
+        private final Object modules;
+
+        private Key(String path, Object scope, Object modules) {
+            this.path = path;
+            this.scope = scope;
+            this.modules = modules;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return path.equals(key.path) && scope == key.scope && modules == key.modules;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(path, System.identityHashCode(scope), System.identityHashCode(modules));
+        }
+    }
+}
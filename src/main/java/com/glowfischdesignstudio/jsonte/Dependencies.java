@@ -0,0 +1,113 @@
+package com.glowfischdesignstudio.jsonte;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Set;
+
+/**
+ * Records inputs read while processing a template, so incremental builds can tell whether its output is out of date.
+ * <p>
+ * Recording is enabled per thread with {@link #track(Set)}. Parts of a template processed on other threads must
+ * continue recording into the set returned by {@link #current()}. Without a set, recording does nothing.
+ */
+public final class Dependencies {
+    public static final String FILE = "file:";
+    public static final String DIRECTORY = "dir:";
+    public static final String TREE = "tree:";
+    public static final String MODULE = "module:";
+
+    private static final ThreadLocal<Set<String>> CURRENT = new ThreadLocal<>();
+
+    private Dependencies() {
+    }
+
+    /**
+     * Returns the set dependencies are recorded into on this thread.
+     *
+     * @return The set or null, if dependencies aren't recorded
+     */
+    public static Set<String> current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Sets the set dependencies are recorded into on this thread. The set must be safe to use from multiple threads.
+     *
+     * @param dependencies The set to record into or null to stop recording.
+     * @return The previous set, that should be restored afterwards
+     */
+    public static Set<String> track(Set<String> dependencies) {
+        Set<String> previous = CURRENT.get();
+        if (dependencies == null) {
+            CURRENT.remove();
+        }
+        else {
+            CURRENT.set(dependencies);
+        }
+        return previous;
+    }
+
+    /**
+     * Records that the content of a file was read.
+     */
+    public static void recordFile(String path) {
+        record(FILE + path);
+    }
+
+    /**
+     * Records that the list of files in a directory was read.
+     */
+    public static void recordDirectory(String path) {
+        record(DIRECTORY + path);
+    }
+
+    /**
+     * Records that the list of files in a directory and all its subdirectories was read.
+     */
+    public static void recordTree(String path) {
+        record(TREE + path);
+    }
+
+    /**
+     * Records that a module was used.
+     */
+    public static void recordModule(String name) {
+        record(MODULE + name);
+    }
+
+    /**
+     * Returns whether a dependency is affected by changes of files or modules.
+     *
+     * @param dependency     The recorded dependency.
+     * @param changed        Absolute normalized paths of changed files and directories.
+     * @param changedModules Names of changed modules.
+     */
+    static boolean affects(String dependency, Set<Path> changed, Set<String> changedModules) {
+        if (dependency.startsWith(MODULE)) {
+            return changedModules.contains(dependency.substring(MODULE.length()));
+        }
+        else if (dependency.startsWith(FILE)) {
+            return changed.contains(absolute(dependency.substring(FILE.length())));
+        }
+        else if (dependency.startsWith(DIRECTORY)) {
+            Path dir = absolute(dependency.substring(DIRECTORY.length()));
+            return changed.stream().anyMatch(p -> p.equals(dir) || dir.equals(p.getParent()));
+        }
+        else if (dependency.startsWith(TREE)) {
+            Path dir = absolute(dependency.substring(TREE.length()));
+            return changed.stream().anyMatch(p -> p.startsWith(dir));
+        }
+        return false;
+    }
+
+    private static Path absolute(String path) {
+        return Paths.get(path).toAbsolutePath().normalize();
+    }
+
+    private static void record(String dependency) {
+        Set<String> dependencies = CURRENT.get();
+        if (dependencies != null) {
+            dependencies.add(dependency);
+        }
+    }
+}
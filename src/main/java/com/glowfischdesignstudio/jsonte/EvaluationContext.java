@@ -0,0 +1,121 @@
+package com.glowfischdesignstudio.jsonte;
+
+import org.json.JSONObject;
+
+import java.util.*;
+
+/**
+ * Holds the scopes a compiled expression is evaluated against. A new context is created for every evaluation, so the
+ * compiled expression itself can be shared between threads.
+ * <p>
+ * Parameters of called lambdas are kept in a stack of frames. Parameters of the lambdas enclosing a name are resolved
+ * to a frame and a slot when the expression is compiled, see {@link ExpressionNode.LambdaParameter}.
+ */
+class EvaluationContext {
+    private final ScopeFrame extraScope;
+    private final JSONObject fullScope;
+    private final Deque<Object> currentScope;
+    private final String path;
+    private final JsonAction action;
+    private final RenderContext context;
+    private String[][] lambdaNames = new String[4][];
+    private Object[][] lambdaValues = new Object[4][];
+    private int lambdaDepth = 0;
+
+    EvaluationContext(ScopeFrame extraScope, JSONObject fullScope, Deque<Object> currentScope, String path, JsonAction action, RenderContext context) {
+        this.extraScope = extraScope;
+        this.fullScope = fullScope;
+        this.currentScope = currentScope;
+        this.path = path;
+        this.action = action;
+        this.context = context;
+    }
+
+    String getPath() {
+        return path;
+    }
+
+    JsonAction getAction() {
+        return action;
+    }
+
+    /**
+     * Returns the key of an object or a map at the index. Expressions evaluated outside of a rendering walk the keys.
+     */
+    <T> T getKey(Object object, Set<T> keys, int index) {
+        if (context == null) {
+            return RenderContext.walkKeys(keys, index);
+        }
+        return context.getKey(object, keys, index);
+    }
+
+    void pushLambdaScope(String[] names, Object[] values) {
+        if (lambdaDepth == lambdaNames.length) {
+            lambdaNames = Arrays.copyOf(lambdaNames, lambdaDepth * 2);
+            lambdaValues = Arrays.copyOf(lambdaValues, lambdaDepth * 2);
+        }
+        lambdaNames[lambdaDepth] = names;
+        lambdaValues[lambdaDepth] = values;
+        lambdaDepth++;
+    }
+
+    void popLambdaScope() {
+        if (lambdaDepth > 0) {
+            lambdaDepth--;
+            lambdaNames[lambdaDepth] = null;
+            lambdaValues[lambdaDepth] = null;
+        }
+    }
+
+    /**
+     * Returns a parameter of a lambda, that is being called.
+     *
+     * @param depth Number of lambdas called after the one with the parameter.
+     * @param slot  Index of the parameter.
+     */
+    Object getLambdaParameter(int depth, int slot) {
+        return lambdaValues[lambdaDepth - 1 - depth][slot];
+    }
+
+    Object resolveName(String name) {
+        if (name.equals("this")) {
+            return currentScope.peek();
+        }
+        // The innermost lambda with the parameter decides, even if the value is null
+        for (int i = lambdaDepth - 1; i >= 0; i--) {
+            String[] names = lambdaNames[i];
+            for (int j = names.length - 1; j >= 0; j--) {
+                if (names[j].equals(name)) {
+                    Object value = lambdaValues[i][j];
+                    return value != null ? value : resolveOuterName(name);
+                }
+            }
+        }
+        return resolveOuterName(name);
+    }
+
+    /**
+     * Resolves a name, that isn't a parameter of a lambda.
+     */
+    Object resolveOuterName(String name) {
+        if (name.equals("value")) {
+            return currentScope.peek();
+        }
+        Object newScope = null;
+        Iterator<Object> it = currentScope.iterator();
+        while (newScope == null && it.hasNext()) {
+            Object scope = it.next();
+            if (scope instanceof JSONObject &&
+                    ((JSONObject) scope).has(name)) {
+                newScope = ((JSONObject) scope).get(name);
+            }
+        }
+        if (newScope == null) {
+            newScope = extraScope.get(name);
+        }
+        if (newScope == null && fullScope.has(name)) {
+            newScope = fullScope.get(name);
+        }
+        return newScope;
+    }
+}
@@ -0,0 +1,226 @@
+package com.glowfischdesignstudio.jsonte;
+
+import com.glowfischdesignstudio.jsonte.utils.StringUtils;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Compiles parse trees of expressions into trees of {@link ExpressionNode}, so the kind of each node is decided once
+ * instead of on every evaluation.
+ */
+class ExpressionCompiler extends JsonTemplateBaseVisitor<ExpressionNode> {
+    // Parameters of the lambdas enclosing the node being compiled, the innermost first
+    private final Deque<String[]> lambdas = new ArrayDeque<>();
+
+    CompiledExpression compile(JsonTemplateParser.ExpressionContext ctx) {
+        JsonAction a = JsonAction.VALUE;
+        if (ctx.Iteration() != null) {
+            a = JsonAction.ITERATION;
+        }
+        else if (ctx.Literal() != null) {
+            a = JsonAction.LITERAL;
+        }
+        else if (ctx.Question() != null) {
+            a = JsonAction.PREDICATE;
+        }
+        return new CompiledExpression(visit(ctx.field()), a, ctx.As() != null ? ctx.name().getText() : "value");
+    }
+
+    ExpressionNode.Lambda compile(JsonTemplateParser.LambdaContext ctx) {
+        return (ExpressionNode.Lambda) visit(ctx);
+    }
+
+    @Override
+    public ExpressionNode visitArray(JsonTemplateParser.ArrayContext ctx) {
+        return new ExpressionNode.ArrayLiteral(compileAll(ctx.field()));
+    }
+
+    @Override
+    public ExpressionNode visitObject(JsonTemplateParser.ObjectContext ctx) {
+        List<JsonTemplateParser.Object_fieldContext> fields = ctx.object_field();
+        String[] names = new String[fields.size()];
+        ExpressionNode[] values = new ExpressionNode[fields.size()];
+        for (int i = 0; i < fields.size(); i++) {
+            JsonTemplateParser.Object_fieldContext f = fields.get(i);
+            names[i] = f.ESCAPED_STRING() != null ? StringUtils.unescape(f.ESCAPED_STRING().getText()) : f.name()
+                    .getText();
+            values[i] = visit(f.field());
+        }
+        return new ExpressionNode.ObjectLiteral(names, values);
+    }
+
+    @Override
+    public ExpressionNode visitIndex(JsonTemplateParser.IndexContext context) {
+        if (context.field() != null) {
+            return visit(context.field());
+        }
+        else if (context.NUMBER() != null) {
+            return new ExpressionNode.Constant(parseNumber(context.NUMBER().getText()));
+        }
+        else if (context.ESCAPED_STRING() != null) {
+            return new ExpressionNode.Constant(StringUtils.unescape(context.ESCAPED_STRING().getText()));
+        }
+        return new ExpressionNode.Constant(-1);
+    }
+
+    @Override
+    public ExpressionNode visitName(JsonTemplateParser.NameContext context) {
+        String name = context.getText();
+        if (!name.equals("this")) {
+            int depth = 0;
+            for (String[] names : lambdas) {
+                for (int slot = names.length - 1; slot >= 0; slot--) {
+                    if (names[slot].equals(name)) {
+                        return new ExpressionNode.LambdaParameter(name, depth, slot);
+                    }
+                }
+                depth++;
+            }
+        }
+        return new ExpressionNode.Name(name);
+    }
+
+    @Override
+    public ExpressionNode visitFunction_param(JsonTemplateParser.Function_paramContext ctx) {
+        if (ctx.lambda() != null) {
+            return visit(ctx.lambda());
+        }
+        return visit(ctx.field());
+    }
+
+    @Override
+    public ExpressionNode visitLambda(JsonTemplateParser.LambdaContext ctx) {
+        String[] names = ctx.name().stream().map(JsonTemplateParser.NameContext::getText).toArray(String[]::new);
+        lambdas.push(names);
+        try {
+            return new ExpressionNode.Lambda(names, visit(ctx.field()));
+        } finally {
+            lambdas.pop();
+        }
+    }
+
+    @Override
+    public ExpressionNode visitField(JsonTemplateParser.FieldContext context) {
+        if (context.Null() != null) {
+            return new ExpressionNode.Constant(null);
+        }
+        if (context.True() != null) {
+            return new ExpressionNode.Constant(true);
+        }
+        if (context.False() != null) {
+            return new ExpressionNode.Constant(false);
+        }
+        if (context.Not() != null) {
+            return new ExpressionNode.Not(visit(context.field(0)));
+        }
+        if (context.field().size() == 2) {
+            ExpressionNode f1 = visit(context.field(0));
+            ExpressionNode f2 = visit(context.field(1));
+            if (context.And() != null) {
+                return new ExpressionNode.And(f1, f2);
+            }
+            if (context.Or() != null) {
+                return new ExpressionNode.Or(f1, f2);
+            }
+            if (context.Question() != null) {
+                return new ExpressionNode.Conditional(f1, f2, null);
+            }
+            if (context.NullCoalescing() != null) {
+                return new ExpressionNode.NullCoalescing(f1, f2);
+            }
+            if (context.Add() != null) {
+                return new ExpressionNode.Add(f1, f2);
+            }
+            if (context.Equal() != null) {
+                return new ExpressionNode.Equal(f1, f2);
+            }
+            if (context.NotEqual() != null) {
+                return new ExpressionNode.NotEqual(f1, f2);
+            }
+            if (context.Range() != null) {
+                return new ExpressionNode.Range(f1, f2);
+            }
+            if (context.Greater() != null) {
+                return new ExpressionNode.Compare(ExpressionNode.Compare.Operator.GREATER, f1, f2);
+            }
+            if (context.Less() != null) {
+                return new ExpressionNode.Compare(ExpressionNode.Compare.Operator.LESS, f1, f2);
+            }
+            if (context.GreaterOrEqual() != null) {
+                return new ExpressionNode.Compare(ExpressionNode.Compare.Operator.GREATER_OR_EQUAL, f1, f2);
+            }
+            if (context.LessOrEqual() != null) {
+                return new ExpressionNode.Compare(ExpressionNode.Compare.Operator.LESS_OR_EQUAL, f1, f2);
+            }
+            if (context.Subtract() != null) {
+                return new ExpressionNode.Subtract(f1, f2);
+            }
+            if (context.Divide() != null) {
+                return new ExpressionNode.Divide(f1, f2);
+            }
+            if (context.Multiply() != null) {
+                return new ExpressionNode.Multiply(f1, f2);
+            }
+        }
+        else if (context.field().size() == 3) {
+            if (context.Question() != null) {
+                return new ExpressionNode.Conditional(visit(context.field(0)), visit(context.field(1)), visit(context.field(2)));
+            }
+        }
+        if (context.LeftParen() != null && context.field().size() == 1 &&
+                context.children.indexOf(context.field(0)) == 0) {
+            JsonTemplateParser.FieldContext callee = context.field(0);
+            ExpressionNode[] params = context.function_param().stream().map(this::visit).toArray(ExpressionNode[]::new);
+            return new ExpressionNode.Call(visit(callee), callee.name() != null ? callee.name().getText() : null,
+                    callee.getText(), params);
+        }
+        else if (context.LeftParen() != null && context.field().size() == 1 &&
+                context.children.indexOf(context.field(0)) != 0) {
+            return visit(context.field(0));
+        }
+        if (context.name() != null && context.field().size() == 1) {
+            return new ExpressionNode.Member(visit(context.field(0)), context.name()
+                    .getText(), context.Question() != null, context.getText());
+        }
+        if (context.name() != null) {
+            return visit(context.name());
+        }
+        if (context.index() != null && context.field().size() == 1) {
+            return new ExpressionNode.Index(visit(context.field(0)), visit(context.index()), context.Question() != null);
+        }
+        if (context.NUMBER() != null) {
+            return new ExpressionNode.Constant(parseNumber(context.NUMBER().getText()));
+        }
+        if (context.ESCAPED_STRING() != null) {
+            return new ExpressionNode.Constant(StringUtils.unescape(context.ESCAPED_STRING().getText()));
+        }
+        if (context.array() != null) {
+            return visit(context.array());
+        }
+        if (context.object() != null) {
+            return visit(context.object());
+        }
+        if (context.Subtract() != null && context.field().size() == 1) {
+            return new ExpressionNode.Negate(visit(context.field(0)));
+        }
+        return new ExpressionNode.Constant(null);
+    }
+
+    private ExpressionNode[] compileAll(List<JsonTemplateParser.FieldContext> fields) {
+        ExpressionNode[] nodes = new ExpressionNode[fields.size()];
+        for (int i = 0; i < nodes.length; i++) {
+            nodes[i] = visit(fields.get(i));
+        }
+        return nodes;
+    }
+
+    private static Object parseNumber(String number) {
+        try {
+            return Integer.parseInt(number);
+        } catch (NumberFormatException e) {
+            return Double.parseDouble(number);
+        }
+    }
+}
@@ -0,0 +1,911 @@
+package com.glowfischdesignstudio.jsonte;
+
+import com.glowfischdesignstudio.jsonte.exception.JsonTemplatingException;
+import com.glowfischdesignstudio.jsonte.functions.CallSite;
+import com.glowfischdesignstudio.jsonte.functions.FunctionDefinition;
+import com.glowfischdesignstudio.jsonte.functions.JSONLambda;
+import com.glowfischdesignstudio.jsonte.utils.ArrayUtils;
+import com.glowfischdesignstudio.jsonte.utils.JsonUtils;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.math.BigDecimal;
+import java.util.*;
+import java.util.function.BiFunction;
+
+/**
+ * A node of a compiled expression. Nodes are immutable, apart from inline caches of function calls, so a compiled
+ * expression can be evaluated against different scopes from any thread.
+ */
+abstract class ExpressionNode {
+
+    abstract Object evaluate(EvaluationContext ctx);
+
+    /**
+     * Returns an equivalent node, that is cheaper to evaluate. Called once an expression becomes hot.
+     *
+     * @return The optimized node
+     */
+    ExpressionNode optimize() {
+        return this;
+    }
+
+    /**
+     * Replaces the node with a constant, if all of its operands are constants and the result is immutable. Nodes
+     * that fail to evaluate are kept, so the error is reported with the path of the actual evaluation.
+     */
+    static ExpressionNode fold(ExpressionNode node, ExpressionNode... operands) {
+        for (ExpressionNode operand : operands) {
+            if (!(operand instanceof Constant)) {
+                return node;
+            }
+        }
+        Object value;
+        try {
+            value = node.evaluate(null);
+        } catch (RuntimeException e) {
+            return node;
+        }
+        if (value == null || value instanceof String || value instanceof Number || value instanceof Boolean) {
+            return new Constant(value);
+        }
+        return node;
+    }
+
+    static ExpressionNode[] optimizeAll(ExpressionNode[] nodes) {
+        ExpressionNode[] result = new ExpressionNode[nodes.length];
+        for (int i = 0; i < nodes.length; i++) {
+            result[i] = nodes[i].optimize();
+        }
+        return result;
+    }
+
+    static final class Constant extends ExpressionNode {
+        private final Object value;
+
+        Constant(Object value) {
+            this.value = value;
+        }
+
+        @Override
+        Object evaluate(EvaluationContext ctx) {
+            return value;
+        }
+    }
+
+    static final class ArrayLiteral extends ExpressionNode {
+        private final ExpressionNode[] elements;
+
+        ArrayLiteral(ExpressionNode[] elements) {
+            this.elements = elements;
+        }
+
+        @Override
+        Object evaluate(EvaluationContext ctx) {
+            JSONArray result = new JSONArray();
+            for (ExpressionNode element : elements) {
+                result.put(element.evaluate(ctx));
+            }
+            return result;
+        }
+
+        @Override
+        ExpressionNode optimize() {
+            return new ArrayLiteral(optimizeAll(elements));
+        }
+    }
+
+    static final class ObjectLiteral extends ExpressionNode {
+        private final String[] names;
+        private final ExpressionNode[] values;
+
+        ObjectLiteral(String[] names, ExpressionNode[] values) {
+            this.names = names;
+            this.values = values;
+        }
+
+        @Override
+        Object evaluate(EvaluationContext ctx) {
+            JSONObject result = new JSONObject();
+            for (int i = 0; i < names.length; i++) {
+                result.put(names[i], values[i].evaluate(ctx));
+            }
+            return result;
+        }
+
+        @Override
+        ExpressionNode optimize() {
+            return new ObjectLiteral(names, optimizeAll(values));
+        }
+    }
+
+    static final class Name extends ExpressionNode {
+        private final String name;
+
+        Name(String name) {
+            this.name = name;
+        }
+
+        @Override
+        Object evaluate(EvaluationContext ctx) {
+            return ctx.resolveName(name);
+        }
+    }
+
+    /**
+     * Name of a parameter of an enclosing lambda, resolved to its frame and slot when compiled.
+     */
+    static final class LambdaParameter extends ExpressionNode {
+        private final String name;
+        private final int depth;
+        private final int slot;
+
+        LambdaParameter(String name, int depth, int slot) {
+            this.name = name;
+            this.depth = depth;
+            this.slot = slot;
+        }
+
+        @Override
+        Object evaluate(EvaluationContext ctx) {
+            Object value = ctx.getLambdaParameter(depth, slot);
+            // A null parameter doesn't hide the name, but outer lambdas are not searched
+            return value != null ? value : ctx.resolveOuterName(name);
+        }
+    }
+
+    static final class Not extends ExpressionNode {
+        private final ExpressionNode operand;
+
+        Not(ExpressionNode operand) {
+            this.operand = operand;
+        }
+
+        @Override
+        Object evaluate(EvaluationContext ctx) {
+            return !JsonUtils.toBoolean(operand.evaluate(ctx));
+        }
+
+        @Override
+        ExpressionNode optimize() {
+            ExpressionNode operand = this.operand.optimize();
+            return fold(new Not(operand), operand);
+        }
+    }
+
+    static final class Negate extends ExpressionNode {
+        private final ExpressionNode operand;
+
+        Negate(ExpressionNode operand) {
+            this.operand = operand;
+        }
+
+        @Override
+        Object evaluate(EvaluationContext ctx) {
+            return negate(operand.evaluate(ctx));
+        }
+
+        @Override
+        ExpressionNode optimize() {
+            ExpressionNode operand = this.operand.optimize();
+            return fold(new Negate(operand), operand);
+        }
+
+        private static Object negate(Object o) {
+            if (o instanceof Integer) {
+                return -(Integer) o;
+            }
+            else if (o instanceof Double) {
+                return -(Double) o;
+            }
+            else if (o instanceof Float) {
+                return -(Float) o;
+            }
+            else if (o instanceof Long) {
+                return -(Long) o;
+            }
+            else if (o instanceof BigDecimal) {
+                return -((BigDecimal) o).doubleValue();
+            }
+            // Arrays are negated into new arrays, because the operand may be shared with other renderings
+            else if (o instanceof JSONArray) {
+                JSONArray arr = (JSONArray) o;
+                JSONArray result = new JSONArray();
+                for (int i = 0; i < arr.length(); i++) {
+                    result.put(negate(arr.get(i)));
+                }
+                return result;
+            }
+            else if (o instanceof List) {
+                List<Object> result = new ArrayList<>();
+                for (Object e : (List<?>) o) {
+                    result.add(negate(e));
+                }
+                return result;
+            }
+            else {
+                return "NaN";
+            }
+        }
+    }
+
+    static final class And extends ExpressionNode {
+        private final ExpressionNode left;
+        private final ExpressionNode right;
+
+        And(ExpressionNode left, ExpressionNode right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        Object evaluate(EvaluationContext ctx) {
+            return JsonUtils.toBoolean(left.evaluate(ctx)) && JsonUtils.toBoolean(right.evaluate(ctx));
+        }
+
+        @Override
+        ExpressionNode optimize() {
+            ExpressionNode left = this.left.optimize();
+            ExpressionNode right = this.right.optimize();
+            return fold(new And(left, right), left, right);
+        }
+    }
+
+    static final class Or extends ExpressionNode {
+        private final ExpressionNode left;
+        private final ExpressionNode right;
+
+        Or(ExpressionNode left, ExpressionNode right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        Object evaluate(EvaluationContext ctx) {
+            return JsonUtils.toBoolean(left.evaluate(ctx)) || JsonUtils.toBoolean(right.evaluate(ctx));
+        }
+
+        @Override
+        ExpressionNode optimize() {
+            ExpressionNode left = this.left.optimize();
+            ExpressionNode right = this.right.optimize();
+            return fold(new Or(left, right), left, right);
+        }
+    }
+
+    /**
+     * Ternary operator. Without the else branch, the result is null when the condition is false.
+     */
+    static final class Conditional extends ExpressionNode {
+        private final ExpressionNode condition;
+        private final ExpressionNode whenTrue;
+        private final ExpressionNode whenFalse;
+
+        Conditional(ExpressionNode condition, ExpressionNode whenTrue, ExpressionNode whenFalse) {
+            this.condition = condition;
+            this.whenTrue = whenTrue;
+            this.whenFalse = whenFalse;
+        }
+
+        @Override
+        Object evaluate(EvaluationContext ctx) {
+            if (JsonUtils.toBoolean(condition.evaluate(ctx))) {
+                return whenTrue.evaluate(ctx);
+            }
+            return whenFalse == null ? null : whenFalse.evaluate(ctx);
+        }
+
+        @Override
+        ExpressionNode optimize() {
+            ExpressionNode condition = this.condition.optimize();
+            ExpressionNode whenTrue = this.whenTrue.optimize();
+            ExpressionNode whenFalse = this.whenFalse == null ? null : this.whenFalse.optimize();
+            // Only one branch can ever be taken with a constant condition
+            if (condition instanceof Constant) {
+                if (JsonUtils.toBoolean(condition.evaluate(null))) {
+                    return whenTrue;
+                }
+                return whenFalse == null ? new Constant(null) : whenFalse;
+            }
+            return new Conditional(condition, whenTrue, whenFalse);
+        }
+    }
+
+    /**
+     * Null coalescing operator. Both sides are always evaluated.
+     */
+    static final class NullCoalescing extends ExpressionNode {
+        private final ExpressionNode left;
+        private final ExpressionNode right;
+
+        NullCoalescing(ExpressionNode left, ExpressionNode right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        Object evaluate(EvaluationContext ctx) {
+            Object f1 = left.evaluate(ctx);
+            Object f2 = right.evaluate(ctx);
+            return f1 == null ? f2 : f1;
+        }
+
+        @Override
+        ExpressionNode optimize() {
+            ExpressionNode left = this.left.optimize();
+            ExpressionNode right = this.right.optimize();
+            return fold(new NullCoalescing(left, right), left, right);
+        }
+    }
+
+    static final class Add extends ExpressionNode {
+        private final ExpressionNode left;
+        private final ExpressionNode right;
+
+        Add(ExpressionNode left, ExpressionNode right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        Object evaluate(EvaluationContext ctx) {
+            Object f1 = left.evaluate(ctx);
+            Object f2 = right.evaluate(ctx);
+            if ((f1 instanceof Number && f2 instanceof Number) || (f1 instanceof Boolean && f2 instanceof Boolean)) {
+                Number n1 = JsonUtils.toNumber(f1);
+                Number n2 = JsonUtils.toNumber(f2);
+                boolean decimal = f1 instanceof Float || f1 instanceof Double || f2 instanceof Float ||
+                        f2 instanceof Double || f1 instanceof BigDecimal || f2 instanceof BigDecimal;
+                if (decimal) {
+                    return n1.doubleValue() + n2.doubleValue();
+                }
+                return n1.intValue() + n2.intValue();
+            }
+            else if ((f1 instanceof JSONArray || f1 instanceof List) &&
+                    (f2 instanceof JSONArray || f2 instanceof List)) {
+                JSONArray a1 = f1 instanceof List ? new JSONArray((List<?>) f1) : (JSONArray) f1;
+                JSONArray a2 = f2 instanceof List ? new JSONArray((List<?>) f2) : (JSONArray) f2;
+                JSONArray a3 = new JSONArray();
+                for (int i = 0; i < a1.length(); i++) {
+                    a3.put(a1.get(i));
+                }
+                for (int i = 0; i < a2.length(); i++) {
+                    a3.put(a2.get(i));
+                }
+                return a3;
+            }
+            else if ((f1 instanceof JSONObject || f1 instanceof Map) &&
+                    (f2 instanceof JSONObject || f2 instanceof Map)) {
+                JSONObject a1 = f1 instanceof Map ? new JSONObject((Map<?, ?>) f1) : (JSONObject) f1;
+                JSONObject a2 = f2 instanceof Map ? new JSONObject((Map<?, ?>) f2) : (JSONObject) f2;
+                return JsonUtils.overlay(a1, a2);
+            }
+            else {
+                return f1.toString() + f2.toString();
+            }
+        }
+
+        @Override
+        ExpressionNode optimize() {
+            ExpressionNode left = this.left.optimize();
+            ExpressionNode right = this.right.optimize();
+            return fold(new Add(left, right), left, right);
+        }
+    }
+
+    static final class Equal extends ExpressionNode {
+        private final ExpressionNode left;
+        private final ExpressionNode right;
+
+        Equal(ExpressionNode left, ExpressionNode right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        Object evaluate(EvaluationContext ctx) {
+            Object f1 = left.evaluate(ctx);
+            Object f2 = right.evaluate(ctx);
+            if (f1 instanceof Number && f2 instanceof Number) {
+                return ((Number) f1).doubleValue() == ((Number) f2).doubleValue();
+            }
+            return Objects.equals(f1, f2);
+        }
+
+        @Override
+        ExpressionNode optimize() {
+            ExpressionNode left = this.left.optimize();
+            ExpressionNode right = this.right.optimize();
+            return fold(new Equal(left, right), left, right);
+        }
+    }
+
+    static final class NotEqual extends ExpressionNode {
+        private final ExpressionNode left;
+        private final ExpressionNode right;
+
+        NotEqual(ExpressionNode left, ExpressionNode right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        Object evaluate(EvaluationContext ctx) {
+            return !Objects.equals(left.evaluate(ctx), right.evaluate(ctx));
+        }
+
+        @Override
+        ExpressionNode optimize() {
+            ExpressionNode left = this.left.optimize();
+            ExpressionNode right = this.right.optimize();
+            return fold(new NotEqual(left, right), left, right);
+        }
+    }
+
+    /**
+     * Base for operators, that work on numbers. Operands are converted with {@link JsonUtils#toNumber(Object)} and
+     * if any of them is not a number, the fallback value is returned.
+     */
+    abstract static class NumericOperator extends ExpressionNode {
+        private final ExpressionNode left;
+        private final ExpressionNode right;
+
+        NumericOperator(ExpressionNode left, ExpressionNode right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        final Object evaluate(EvaluationContext ctx) {
+            Number n1 = JsonUtils.toNumber(left.evaluate(ctx));
+            Number n2 = JsonUtils.toNumber(right.evaluate(ctx));
+            if (n1 == null || n2 == null) {
+                return fallback();
+            }
+            return apply(n1, n2);
+        }
+
+        @Override
+        final ExpressionNode optimize() {
+            ExpressionNode left = this.left.optimize();
+            ExpressionNode right = this.right.optimize();
+            return fold(create(left, right), left, right);
+        }
+
+        abstract Object apply(Number n1, Number n2);
+
+        abstract Object fallback();
+
+        abstract NumericOperator create(ExpressionNode left, ExpressionNode right);
+
+        static boolean isDecimal(Number n1, Number n2) {
+            return n1 instanceof Float || n1 instanceof Double || n1 instanceof BigDecimal ||
+                    n2 instanceof Float || n2 instanceof Double || n2 instanceof BigDecimal;
+        }
+    }
+
+    static final class Range extends NumericOperator {
+        Range(ExpressionNode left, ExpressionNode right) {
+            super(left, right);
+        }
+
+        @Override
+        NumericOperator create(ExpressionNode left, ExpressionNode right) {
+            return new Range(left, right);
+        }
+
+        @Override
+        Object apply(Number n1, Number n2) {
+            return ArrayUtils.range(n1.intValue(), n2.intValue());
+        }
+
+        @Override
+        Object fallback() {
+            return "NaN";
+        }
+    }
+
+    static final class Compare extends NumericOperator {
+        enum Operator {
+            LESS, LESS_OR_EQUAL, GREATER, GREATER_OR_EQUAL
+        }
+
+        private final Operator operator;
+
+        Compare(Operator operator, ExpressionNode left, ExpressionNode right) {
+            super(left, right);
+            this.operator = operator;
+        }
+
+        @Override
+        NumericOperator create(ExpressionNode left, ExpressionNode right) {
+            return new Compare(operator, left, right);
+        }
+
+        @Override
+        Object apply(Number n1, Number n2) {
+            double d1 = n1.doubleValue();
+            double d2 = n2.doubleValue();
+            switch (operator) {
+                case LESS:
+                    return d1 < d2;
+                case LESS_OR_EQUAL:
+                    return d1 <= d2;
+                case GREATER:
+                    return d1 > d2;
+                default:
+                    return d1 >= d2;
+            }
+        }
+
+        @Override
+        Object fallback() {
+            return false;
+        }
+    }
+
+    static final class Subtract extends NumericOperator {
+        Subtract(ExpressionNode left, ExpressionNode right) {
+            super(left, right);
+        }
+
+        @Override
+        NumericOperator create(ExpressionNode left, ExpressionNode right) {
+            return new Subtract(left, right);
+        }
+
+        @Override
+        Object apply(Number n1, Number n2) {
+            if (isDecimal(n1, n2)) {
+                return n1.doubleValue() - n2.doubleValue();
+            }
+            return n1.intValue() - n2.intValue();
+        }
+
+        @Override
+        Object fallback() {
+            return "NaN";
+        }
+    }
+
+    static final class Multiply extends NumericOperator {
+        Multiply(ExpressionNode left, ExpressionNode right) {
+            super(left, right);
+        }
+
+        @Override
+        NumericOperator create(ExpressionNode left, ExpressionNode right) {
+            return new Multiply(left, right);
+        }
+
+        @Override
+        Object apply(Number n1, Number n2) {
+            if (isDecimal(n1, n2)) {
+                return n1.doubleValue() * n2.doubleValue();
+            }
+            return n1.intValue() * n2.intValue();
+        }
+
+        @Override
+        Object fallback() {
+            return "NaN";
+        }
+    }
+
+    static final class Divide extends NumericOperator {
+        Divide(ExpressionNode left, ExpressionNode right) {
+            super(left, right);
+        }
+
+        @Override
+        NumericOperator create(ExpressionNode left, ExpressionNode right) {
+            return new Divide(left, right);
+        }
+
+        @Override
+        Object apply(Number n1, Number n2) {
+            if (isDecimal(n1, n2)) {
+                return n1.doubleValue() / n2.doubleValue();
+            }
+            return n1.intValue() / n2.intValue();
+        }
+
+        @Override
+        Object fallback() {
+            return "NaN";
+        }
+    }
+
+    /**
+     * Field access with a dot. Accessing an instance function of an array or a string returns a function bound to
+     * that instance.
+     */
+    static final class Member extends ExpressionNode {
+        private final ExpressionNode object;
+        private final String name;
+        private final boolean optional;
+        private final String text;
+        private final CallSite callSite = new CallSite();
+        // Function definitions are never removed, so once found, they can be kept
+        private volatile FunctionDefinition arrayFunction;
+        private volatile FunctionDefinition stringFunction;
+
+        Member(ExpressionNode object, String name, boolean optional, String text) {
+            this.object = object;
+            this.name = name;
+            this.optional = optional;
+            this.text = text;
+        }
+
+        @Override
+        Object evaluate(EvaluationContext ctx) {
+            Object object = this.object.evaluate(ctx);
+            Object newScope = null;
+            if (object instanceof JSONObject && ((JSONObject) object).has(name)) {
+                newScope = ((JSONObject) object).get(name);
+            }
+            // After adding lambdas, we also need to check for maps
+            else if (object instanceof Map && ((Map<?, ?>) object).containsKey(name)) {
+                newScope = ((Map<?, ?>) object).get(name);
+            }
+            else {
+                if (object instanceof JSONArray || object instanceof List) {
+                    FunctionDefinition function = arrayFunction;
+                    if (function == null) {
+                        function = arrayFunction = getInstanceFunction(JSONArray.class);
+                    }
+                    if (function != null) {
+                        if (object instanceof List) {
+                            object = new JSONArray((List<?>) object);
+                        }
+                        return bind(function, object);
+                    }
+                    throw new JsonTemplatingException("Trying to access field from an array", ctx.getPath());
+                }
+
+                if (object instanceof String) {
+                    FunctionDefinition function = stringFunction;
+                    if (function == null) {
+                        function = stringFunction = getInstanceFunction(String.class);
+                    }
+                    if (function != null) {
+                        return bind(function, object);
+                    }
+                    throw new JsonTemplatingException("Trying to access field from a string", ctx.getPath());
+                }
+
+                if (object instanceof Number) {
+                    throw new JsonTemplatingException("Trying to access field from a number", ctx.getPath());
+                }
+            }
+
+            if (newScope == null) {
+                if (ctx.getAction() == JsonAction.PREDICATE || optional) {
+                    return null;
+                }
+                throw new JsonTemplatingException("Failed to resolve \"" + text + "\" in ", ctx.getPath());
+            }
+            return newScope;
+        }
+
+        @Override
+        ExpressionNode optimize() {
+            return new Member(object.optimize(), name, optional, text);
+        }
+
+        private FunctionDefinition getInstanceFunction(Class<?> cls) {
+            Map<String, FunctionDefinition> functions = JsonProcessor.INSTANCE_FUNCTIONS.get(cls);
+            return functions == null ? null : functions.get(name);
+        }
+
+        private BiFunction<Object[], String, Object> bind(FunctionDefinition function, Object instance) {
+            return (params, path) -> callSite.execute(function, ArrayUtils.prepend(instance, params), path);
+        }
+    }
+
+    /**
+     * Access with brackets. Like members, elements are returned without copying them, so they can be shared with the
+     * scope and must not be modified. A numeric index of an object returns its key, found with the key index of the
+     * rendering, see {@link RenderContext#getKey(Object, Set, int)}.
+     */
+    static final class Index extends ExpressionNode {
+        private final ExpressionNode object;
+        private final ExpressionNode index;
+        private final boolean optional;
+
+        Index(ExpressionNode object, ExpressionNode index, boolean optional) {
+            this.object = object;
+            this.index = index;
+            this.optional = optional;
+        }
+
+        @Override
+        Object evaluate(EvaluationContext ctx) {
+            Object i = index.evaluate(ctx);
+            Object object = this.object.evaluate(ctx);
+            String path = ctx.getPath();
+            if (object instanceof JSONArray) {
+                JSONArray arr = (JSONArray) object;
+                if (!(i instanceof Number)) {
+                    if (optional) {
+                        return null;
+                    }
+                    throw new JsonTemplatingException("Array index is not a number!", path);
+                }
+                int index = ((Number) i).intValue();
+                if (index >= arr.length() || index < 0) {
+                    if (optional) {
+                        return null;
+                    }
+                    throw new JsonTemplatingException("Array index out of bounds!", path);
+                }
+                Object value = arr.opt(index);
+                return value == JSONObject.NULL ? null : value;
+            }
+            // After adding lambdas, we also need to check for lists
+            if (object instanceof List) {
+                List<?> arr = (List<?>) object;
+                if (!(i instanceof Number)) {
+                    if (optional) {
+                        return null;
+                    }
+                    throw new JsonTemplatingException("Array index is not a number!", path);
+                }
+                int index = ((Number) i).intValue();
+                if (index >= arr.size() || index < 0) {
+                    if (optional) {
+                        return null;
+                    }
+                    throw new JsonTemplatingException("Array index out of bounds!", path);
+                }
+                return arr.get(index);
+            }
+            else if (object instanceof JSONObject) {
+                JSONObject obj = (JSONObject) object;
+                if (i instanceof Number) {
+                    int index = ((Number) i).intValue();
+                    if (index >= obj.length() || index < 0) {
+                        if (optional) {
+                            return null;
+                        }
+                        throw new JsonTemplatingException("Object index out of bounds!", path);
+                    }
+                    return ctx.getKey(obj, obj.keySet(), index);
+                }
+                if (i instanceof String) {
+                    if (!obj.has((String) i)) {
+                        if (optional) {
+                            return null;
+                        }
+                        throw new JsonTemplatingException("Object does not have key \"" + i + "\"!", path);
+                    }
+                    return obj.get((String) i);
+                }
+                throw new JsonTemplatingException("Object index is not a number or string!", path);
+            }
+            // After adding lambdas, we also need to check for maps
+            else if (object instanceof Map) {
+                //noinspection unchecked
+                Map<String, ?> obj = (Map<String, ?>) object;
+                if (i instanceof Number) {
+                    int index = ((Number) i).intValue();
+                    if (index >= obj.size() || index < 0) {
+                        if (optional) {
+                            return null;
+                        }
+                        throw new JsonTemplatingException("Object index out of bounds!", path);
+                    }
+                    return obj.get(ctx.getKey(obj, obj.keySet(), index));
+                }
+                if (i instanceof String) {
+                    if (!obj.containsKey((String) i)) {
+                        if (optional) {
+                            return null;
+                        }
+                        throw new JsonTemplatingException("Object does not have key \"" + i + "\"!", path);
+                    }
+                    return obj.get((String) i);
+                }
+                throw new JsonTemplatingException("Object index is not a number or string!", path);
+            }
+            return null;
+        }
+
+        @Override
+        ExpressionNode optimize() {
+            return new Index(object.optimize(), index.optimize(), optional);
+        }
+    }
+
+    /**
+     * Function call. The callee is evaluated first. If it resolves to a string, the string is compiled as a lambda,
+     * if it resolves to a bound instance function, that function is called. Otherwise, the call goes to a global
+     * function with the callee name.
+     */
+    static final class Call extends ExpressionNode {
+        private final ExpressionNode callee;
+        private final String functionName;
+        private final String calleeText;
+        private final ExpressionNode[] params;
+        private final FunctionDefinition function;
+        private final CallSite callSite = new CallSite();
+
+        Call(ExpressionNode callee, String functionName, String calleeText, ExpressionNode[] params) {
+            this(callee, functionName, calleeText, params, null);
+        }
+
+        private Call(ExpressionNode callee, String functionName, String calleeText, ExpressionNode[] params, FunctionDefinition function) {
+            this.callee = callee;
+            this.functionName = functionName;
+            this.calleeText = calleeText;
+            this.params = params;
+            this.function = function;
+        }
+
+        @Override
+        Object evaluate(EvaluationContext ctx) {
+            Object lambda = callee.evaluate(ctx);
+            Object[] params = new Object[this.params.length];
+            for (int i = 0; i < params.length; i++) {
+                params[i] = this.params[i].evaluate(ctx);
+            }
+            if (lambda instanceof String) {
+                JSONLambda func = (JSONLambda) JsonProcessor.compileLambda((String) lambda, ctx.getPath())
+                        .evaluate(ctx);
+                return func.apply(params);
+            }
+            else if (lambda instanceof BiFunction) {
+                //noinspection unchecked
+                return ((BiFunction<Object[], String, Object>) lambda).apply(params, ctx.getPath());
+            }
+            else {
+                FunctionDefinition function = this.function;
+                if (function == null && functionName != null) {
+                    function = JsonProcessor.FUNCTIONS.get(functionName);
+                }
+                if (function == null) {
+                    throw new JsonTemplatingException("Function '" + (functionName == null ? calleeText : functionName) + "' not found!", ctx.getPath());
+                }
+                return callSite.execute(function, params, ctx.getPath());
+            }
+        }
+
+        @Override
+        ExpressionNode optimize() {
+            // Bind the global function up front. It's only used, when the callee doesn't resolve to a lambda
+            FunctionDefinition function = functionName == null ? null : JsonProcessor.FUNCTIONS.get(functionName);
+            return new Call(callee.optimize(), functionName, calleeText, optimizeAll(params), function);
+        }
+    }
+
+    static final class Lambda extends ExpressionNode {
+        private final String[] names;
+        private final ExpressionNode body;
+
+        Lambda(String[] names, ExpressionNode body) {
+            this.names = names;
+            this.body = body;
+        }
+
+        @Override
+        Object evaluate(EvaluationContext ctx) {
+            return (JSONLambda) o -> {
+                if (names.length > o.length) {
+                    throw new JsonTemplatingException(
+                            String.format("Lambda requires %d parameters, but only %d were supplied!", names.length, o.length), ctx.getPath());
+                }
+                ctx.pushLambdaScope(names, o);
+                try {
+                    return body.evaluate(ctx);
+                } finally {
+                    ctx.popLambdaScope();
+                }
+            };
+        }
+
+        @Override
+        ExpressionNode optimize() {
+            return new Lambda(names, body.optimize());
+        }
+    }
+}
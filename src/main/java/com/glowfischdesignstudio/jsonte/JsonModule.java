@@ -2,12 +2,16 @@ package com.glowfischdesignstudio.jsonte;
 
 import org.json.JSONObject;
 
+import java.util.HashMap;
+import java.util.Map;
+
 public class JsonModule {
 
     private final JSONObject template;
     private final JSONObject scope;
     private String copy;
     private final String name;
+    private volatile RenderContext compiled;
 
     public JsonModule(String name, JSONObject template, JSONObject scope, String copy) {
         this.name = name;
@@ -31,4 +35,22 @@ public class JsonModule {
     public String getName() {
         return name;
     }
+
+    /**
+     * Returns the context with the expressions and strings of the template parsed and its static parts rendered. It's
+     * created when it's needed for the first time, so the template must not be modified afterwards.
+     */
+    RenderContext getCompiled() {
+        RenderContext result = compiled;
+        if (result == null) {
+            Map<String, CompiledExpression> expressions = new HashMap<>();
+            Map<String, StringTemplate> strings = new HashMap<>();
+            // Syntax errors are reported when the module is used
+            CompiledTemplate.collectExpressions(template, "$template", false, expressions, strings);
+            result = new RenderContext(Long.MAX_VALUE, expressions, strings);
+            result.prepare(template);
+            compiled = result;
+        }
+        return result;
+    }
 }
@@ -3,7 +3,11 @@ package com.glowfischdesignstudio.jsonte;
 import com.glowfischdesignstudio.jsonte.exception.JsonTemplatingException;
 import com.glowfischdesignstudio.jsonte.functions.*;
 import com.glowfischdesignstudio.jsonte.functions.impl.*;
+import com.glowfischdesignstudio.jsonte.utils.AssetIndex;
+import com.glowfischdesignstudio.jsonte.utils.FileSnapshot;
 import com.glowfischdesignstudio.jsonte.utils.JsonUtils;
+import com.glowfischdesignstudio.jsonte.utils.LruCache;
+import com.glowfischdesignstudio.jsonte.utils.Pair;
 import com.stirante.justpipe.Pipe;
 import com.stirante.justpipe.exception.RuntimeIOException;
 import org.antlr.v4.runtime.*;
@@ -13,18 +17,26 @@ import org.json.JSONObject;
 
 import java.io.File;
 import java.io.IOException;
-import java.lang.reflect.InvocationTargetException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Method;
 import java.util.*;
+import java.util.concurrent.ForkJoinTask;
 import java.util.function.Function;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 public class JsonProcessor {
 
-    private static final Pattern TEMPLATE_PATTERN = Pattern.compile("\\{\\{(?:\\\\.|[^{}])+}}");
-    private static final Pattern ACTION_PATTERN = Pattern.compile("^\\{\\{(?:\\\\.|[^{}])+}}$");
+    private static final int EXPRESSION_CACHE_SIZE = Integer.getInteger("jsonte.expressionCacheSize", 8192);
+    private static final boolean PARALLEL_FILES =
+            Boolean.parseBoolean(System.getProperty("jsonte.parallelFiles", "true"));
+
+    private static final LruCache<String, CompiledExpression> EXPRESSION_CACHE =
+            new LruCache<>(EXPRESSION_CACHE_SIZE);
+    private static final LruCache<String, ExpressionNode.Lambda> LAMBDA_CACHE =
+            new LruCache<>(EXPRESSION_CACHE_SIZE);
+    private static volatile CopyCache copyCache = null;
 
     public static final Map<String, FunctionDefinition> FUNCTIONS = new HashMap<>();
     public static final Map<Class<?>, Map<String, FunctionDefinition>> INSTANCE_FUNCTIONS = new HashMap<>();
@@ -39,6 +51,16 @@ public class JsonProcessor {
         }
     };
 
+    /**
+     * Index used by the image and audio functions instead of loading the files, if set. It reads the files directly,
+     * so it's not used when file loading is disabled.
+     */
+    public static AssetIndex ASSET_INDEX = null;
+    /**
+     * Snapshot of the file system used by the file listing functions, if set. It should be replaced for every build.
+     */
+    public static FileSnapshot FILE_SNAPSHOT = null;
+
     static {
         register(StringFunctions.class);
         register(FileFunctions.class);
@@ -60,6 +82,17 @@ public class JsonProcessor {
                 .computeIfAbsent(name, FunctionDefinition::new);
     }
 
+    /**
+     * Loads a file with {@link #FILE_LOADER} and records it as a dependency of the template being processed.
+     *
+     * @param path Path to the file
+     * @return The content of the file
+     */
+    public static Pipe loadFile(String path) {
+        Dependencies.recordFile(path);
+        return FILE_LOADER.apply(path);
+    }
+
     public static void removeDangerousFunctions() {
         for (FunctionDefinition func : FUNCTIONS.values()) {
             if (func.isUnsafe()) {
@@ -69,6 +102,8 @@ public class JsonProcessor {
         FILE_LOADER = path -> {
             throw new RuntimeException("File loading is disabled");
         };
+        ASSET_INDEX = null;
+        FILE_SNAPSHOT = null;
     }
 
     public static JsonModule processModule(String input) {
@@ -82,7 +117,10 @@ public class JsonProcessor {
             throw new JsonTemplatingException("Module does not have a name!");
         }
         if (template != null) {
-            return new JsonModule(root.getString("$module"), template, scope, root.has("$copy") ? root.getString("$copy") : null);
+            JsonModule module = new JsonModule(root.getString("$module"), template, scope, root.has("$copy") ? root.getString("$copy") : null);
+            // Compiled while loading the modules, instead of by the first template extending it
+            module.getCompiled();
+            return module;
         }
         else {
             throw new JsonTemplatingException("A module must be an object!");
@@ -94,20 +132,19 @@ public class JsonProcessor {
      *
      * @param extend   Modules to extend the template with.
      * @param template Template to extend.
-     * @param isCopy   Whether to copy the template or not.
      * @param scope    Scope to use.
      * @param extra    Extra scope to use.
-     * @return The extended template.
+     * @return The extended template. Parts of it can be shared with the template and the modules.
      */
-    private static JSONObject extendTemplate(Object extend, JSONObject template, boolean isCopy, JSONObject scope, Deque<Object> currentScope, JSONObject extra, long deadline, Map<String, JsonModule> moduleMap) throws IOException {
+    private static JSONObject extendTemplate(Object extend, JSONObject template, JSONObject scope, Deque<Object> currentScope, ScopeFrame extra, RenderContext context, Map<String, JsonModule> moduleMap) throws IOException {
         List<String> modules = new ArrayList<>();
         if (extend instanceof JSONArray) {
             List<Object> list = ((JSONArray) extend).toList();
             for (int i = 0, listSize = list.size(); i < listSize; i++) {
                 Object o = list.get(i);
                 String s = (String) o;
-                if (ACTION_PATTERN.matcher(s).matches()) {
-                    Object value = resolve(s, extra, scope, currentScope, "$extend[" + i + "]").getValue();
+                if (s.startsWith("{{") && context.getString(s).isAction()) {
+                    Object value = resolve(s, extra, scope, currentScope, "$extend[" + i + "]", context).getValue();
                     if (value instanceof JSONArray) {
                         modules.addAll(((JSONArray) value).toList()
                                 .stream()
@@ -128,8 +165,8 @@ public class JsonProcessor {
         }
         else if (extend instanceof String) {
             String s = (String) extend;
-            if (ACTION_PATTERN.matcher(s).matches()) {
-                Object value = resolve(s, extra, scope, currentScope, "$extend").getValue();
+            if (s.startsWith("{{") && context.getString(s).isAction()) {
+                Object value = resolve(s, extra, scope, currentScope, "$extend", context).getValue();
                 if (value instanceof JSONArray) {
                     modules.addAll(((JSONArray) value).toList()
                             .stream()
@@ -148,6 +185,7 @@ public class JsonProcessor {
             }
         }
         for (String module : modules) {
+            Dependencies.recordModule(module);
             if (!moduleMap.containsKey(module)) {
                 throw new JsonTemplatingException(String.format("Could not find a module named '%s'!", module));
             }
@@ -155,14 +193,13 @@ public class JsonProcessor {
             if (mod.getTemplate() == null) {
                 throw new JsonTemplatingException(String.format("Module '%s' does not have a template!", module));
             }
-            JSONObject moduleScope = (JSONObject) JsonUtils.copyJson(scope);
-            JSONObject element = (JSONObject) JsonUtils.copyJson(mod.getTemplate());
+            JSONObject element = mod.getTemplate();
             if (mod.getCopy() != null) {
-                String copyPath = visitStringValue(mod.getCopy(), extra, scope, currentScope, "$copy").toString();
+                String copyPath = visitStringValue(mod.getCopy(), extra, scope, currentScope, "$copy", context);
                 JSONObject copy;
                 if (copyPath.endsWith(".templ")) {
                     Map<String, Object> map =
-                            processJson("copy", FILE_LOADER.apply(copyPath).toString(), scope, deadline - System.currentTimeMillis(), moduleMap);
+                            processCopy(copyPath, scope, moduleMap, context);
                     if (map.values().size() != 1) {
                         throw new JsonTemplatingException("Cannot copy a template, that produces multiple files!");
                     }
@@ -170,54 +207,84 @@ public class JsonProcessor {
                 }
                 else {
                     copy =
-                            new JSONObject(FILE_LOADER.apply(copyPath).toString());
+                            new JSONObject(loadFile(copyPath).toString());
                 }
-                JsonUtils.merge(element, copy);
+                element = JsonUtils.overlay(element, copy);
             }
-            JsonUtils.merge(moduleScope, mod.getScope());
+            JSONObject moduleScope = JsonUtils.overlay(scope, mod.getScope());
             JSONObject parent =
                     (JSONObject) visit(element, extra, moduleScope, currentScope,
-                            "[Module " + module + "]$template", deadline);
-            if (isCopy) {
-                JsonUtils.merge(template, parent);
-            }
-            else {
-                template = JsonUtils.merge(new JSONObject(template.toString()), parent);
-            }
+                            "[Module " + module + "]$template", context.withCompiled(mod.getCompiled()));
+            template = JsonUtils.overlay(template, parent);
         }
         return template;
     }
 
     /**
-     * Processes a template.
+     * Processes a template. Parts of the result without any templates can be shared between multiple places of the
+     * result and between the files, so copy the result with {@link JsonUtils#copyJson(Object)} before modifying it.
      *
      * @param name        Name of the template.
      * @param input       Input to process.
-     * @param globalScope Global scope to use.
+     * @param globalScope Global scope to use. It's not modified and can be shared by templates processed at the same
+     *                    time, but parts of it can be shared with the result. Members and elements read by
+     *                    expressions are returned without copying them.
      * @param timeout     Timeout for the processing in milliseconds.
      * @param modules
      * @return The map of name to processed stringified JSON.
      * @throws IOException If required files could not be read while processing.
      */
     public static Map<String, Object> processJson(String name, String input, JSONObject globalScope, long timeout, Map<String, JsonModule> modules) throws IOException {
-        // Set up the deadline
-        long deadline = System.currentTimeMillis() + timeout;
-        if (timeout <= 0) {
-            deadline = Long.MAX_VALUE;
+        return processJson(name, input, parseTemplate(name, input), globalScope, modules, RenderContext.withTimeout(timeout));
+    }
+
+    /**
+     * Processes a template copied with <code>$copy</code>. Results are reused while the copy cache is enabled, so they
+     * are only read, like the templates they are merged into.
+     *
+     * @return The map of name to processed JSON, that must not be modified.
+     */
+    private static Map<String, Object> processCopy(String path, JSONObject scope, Map<String, JsonModule> modules, RenderContext context) throws IOException {
+        CopyCache cache = copyCache;
+        if (cache == null) {
+            return processJson("copy", loadFile(path).toString(), scope, context.getRemainingTime(), modules);
         }
-        // Parse the input
-        Map<String, Object> result = new HashMap<>();
-        JSONObject root;
+        return cache.get(path, scope, modules, () -> processJson("copy", loadFile(path).toString(), scope, context.getRemainingTime(), modules));
+    }
+
+    /**
+     * Enables or disables reusing results of templates copied with <code>$copy</code>. The cache should be enabled
+     * only for the duration of a single build, because changes of the copied files aren't detected.
+     *
+     * @param enabled Whether to enable the cache. Enabling it again starts with an empty cache.
+     */
+    static void setCopyCache(boolean enabled) {
+        copyCache = enabled ? new CopyCache() : null;
+    }
+
+    static JSONObject parseTemplate(String name, String input) {
         try {
-            root = new JSONObject(input);
+            return new JSONObject(input);
         } catch (JSONException e) {
             throw new JsonTemplatingException("Could not parse the " + name + " template!", e);
         }
+    }
+
+    static boolean isTemplate(JSONObject root) {
+        return root.has("$template") || root.has("$copy") || root.has("$extend");
+    }
+
+    /**
+     * Processes a parsed template. The root object is not modified, so it can be processed again.
+     */
+    static Map<String, Object> processJson(String name, String input, JSONObject root, JSONObject globalScope, Map<String, JsonModule> modules, RenderContext context) throws IOException {
+        Map<String, Object> result = new HashMap<>();
 
         // Define scope
-        JSONObject scope = (JSONObject) JsonUtils.copyJson(globalScope);
+        // The global scope is shared by all templates, only the values changed by $scope are copied
+        JSONObject scope = globalScope;
         if (root.has("$scope")) {
-            scope = JsonUtils.merge(root.getJSONObject("$scope"), globalScope);
+            scope = JsonUtils.overlay(root.getJSONObject("$scope"), globalScope);
         }
 
         boolean isCopy = root.has("$copy");
@@ -225,7 +292,7 @@ public class JsonProcessor {
         boolean hasTemplate = root.has("$template");
 
         // If none of the options are defined, return unmodified JSON
-        if (!hasTemplate && !isCopy && !isExtend) {
+        if (!isTemplate(root)) {
             result.put(name, input);
             return result;
         }
@@ -237,57 +304,61 @@ public class JsonProcessor {
             JSONObject files = root.getJSONObject("$files");
             String fileName = (String) files.get("fileName");
             JSONArray array =
-                    (JSONArray) resolve(files.getString("array"), new JSONObject(), scope, new ArrayDeque<>(List.of(scope)), "$files.array").getValue();
+                    (JSONArray) resolve(files.getString("array"), ScopeFrame.EMPTY, scope, new ArrayDeque<>(List.of(scope)), "$files.array", context).getValue();
             if (array == null) {
                 throw new JsonTemplatingException("$files.array is null in " + name);
             }
-            for (int i = 0; i < array.length(); i++) {
-                checkDeadline(deadline);
-                JSONObject extra = new JSONObject();
-                extra.put("index", i);
-                extra.put("value", array.get(i));
-                if (isCopy) {
-                    String copyPath =
-                            visitStringValue(root.getString("$copy"), extra, scope, new ArrayDeque<>(List.of(array.get(i))),
-                                    name + "#/$copy").toString();
-                    if (copyPath.endsWith(".templ")) {
-                        Map<String, Object> map =
-                                processJson("copy", FILE_LOADER.apply(copyPath).toString(), globalScope, timeout, modules);
-                        if (map.values().size() != 1) {
-                            throw new JsonTemplatingException("Cannot copy a template, that produces multiple files!");
-                        }
-                        template = new JSONObject(map.get("copy"));
+            // A template, that doesn't depend on the element, is prepared once and shared by all files
+            Object sharedTemplate = null;
+            if (!isCopy && !isExtend) {
+                sharedTemplate = JsonUtils.withoutNulls((JSONObject) root.get("$template"));
+            }
+            // The first file is processed on this thread, so the rest can reuse the values it cached in the context
+            int parallelFrom = PARALLEL_FILES ? 1 : array.length();
+            for (int i = 0; i < Math.min(parallelFrom, array.length()); i++) {
+                Pair<String, Object> file = processFile(name, root, fileName, array, i, scope, globalScope, sharedTemplate, modules, context);
+                result.put(file.getKey(), file.getValue());
+            }
+            List<ForkJoinTask<Object>> tasks = new ArrayList<>();
+            for (int i = parallelFrom; i < array.length(); i++) {
+                int index = i;
+                JSONObject finalScope = scope;
+                Object finalSharedTemplate = sharedTemplate;
+                RenderContext fileContext = context.fork();
+                Set<String> dependencies = Dependencies.current();
+                tasks.add(ForkJoinTask.adapt(() -> {
+                    Set<String> previous = Dependencies.track(dependencies);
+                    try {
+                        return processFile(name, root, fileName, array, index, finalScope, globalScope, finalSharedTemplate, modules, fileContext);
+                    } catch (Exception e) {
+                        // Rethrown as is on the calling thread, join() would wrap it in another exception
+                        return e;
+                    } finally {
+                        Dependencies.track(previous);
                     }
-                    else {
-                        template =
-                                new JSONObject(FILE_LOADER.apply(copyPath).toString());
+                }).fork());
+            }
+            for (ForkJoinTask<Object> task : tasks) {
+                Object file = task.join();
+                if (file instanceof Exception) {
+                    tasks.forEach(t -> t.cancel(false));
+                    if (file instanceof IOException) {
+                        throw (IOException) file;
                     }
+                    throw (RuntimeException) file;
                 }
-                else {
-                    template = root.get("$template");
-                }
-                if (isExtend) {
-                    template =
-                            extendTemplate(root.get("$extend"), (JSONObject) template, isCopy, scope, new ArrayDeque<>(List.of(array.get(i))), extra, deadline, modules);
-                }
-                if (isCopy && hasTemplate) {
-                    template = JsonUtils.merge(new JSONObject(root.getJSONObject("$template")
-                            .toString()), (JSONObject) template);
-                }
-                JsonUtils.removeNulls((JSONObject) template);
-                String mFileName =
-                        (String) visit(fileName, extra, scope, new ArrayDeque<>(List.of(array.get(i))), "$files.fileName", deadline);
-                result.put(mFileName, visitFile(JsonUtils.copyJson(template), extra, scope, new ArrayDeque<>(List.of(array.get(i))), deadline));
+                Pair<?, ?> pair = (Pair<?, ?>) file;
+                result.put((String) pair.getKey(), pair.getValue());
             }
         }
         else {
             if (isCopy) {
                 String copyPath =
-                        visitStringValue(root.getString("$copy"), new JSONObject(), scope, new ArrayDeque<>(List.of(new JSONObject())),
-                                name + "#/$copy").toString();
+                        visitStringValue(root.getString("$copy"), ScopeFrame.EMPTY, scope, new ArrayDeque<>(List.of(new JSONObject())),
+                                name + "#/$copy", context);
                 if (copyPath.endsWith(".templ")) {
                     Map<String, Object> map =
-                            processJson("copy", FILE_LOADER.apply(String.valueOf(visitStringValue(copyPath, new JSONObject(), scope, new ArrayDeque<>(List.of(new JSONObject())), "$copy"))).toString(), globalScope, timeout, modules);
+                            processCopy(visitStringValue(copyPath, ScopeFrame.EMPTY, scope, new ArrayDeque<>(List.of(new JSONObject())), "$copy", context), globalScope, modules, context);
                     if (map.values().size() != 1) {
                         throw new JsonTemplatingException("Cannot copy a template, that produces multiple files!");
                     }
@@ -295,7 +366,7 @@ public class JsonProcessor {
                 }
                 else {
                     template =
-                            new JSONObject(FILE_LOADER.apply(String.valueOf(visitStringValue(copyPath, new JSONObject(), scope, new ArrayDeque<>(List.of(new JSONObject())), "$copy"))).toString());
+                            new JSONObject(loadFile(visitStringValue(copyPath, ScopeFrame.EMPTY, scope, new ArrayDeque<>(List.of(new JSONObject())), "$copy", context)).toString());
                 }
             }
             else {
@@ -303,31 +374,119 @@ public class JsonProcessor {
             }
             if (isExtend && template instanceof JSONObject) {
                 template =
-                        extendTemplate(root.get("$extend"), (JSONObject) template, isCopy, scope, new ArrayDeque<>(List.of(new JSONObject())), new JSONObject(), deadline, modules);
+                        extendTemplate(root.get("$extend"), (JSONObject) template, scope, new ArrayDeque<>(List.of(new JSONObject())), ScopeFrame.EMPTY, context, modules);
             }
             else if (isExtend) {
                 throw new JsonTemplatingException("Cannot extend template that is not an object!");
             }
             if (isCopy && hasTemplate) {
-                template = JsonUtils.merge(root.getJSONObject("$template"), (JSONObject) template);
+                template = JsonUtils.overlay(root.getJSONObject("$template"), (JSONObject) template);
             }
-            JsonUtils.removeNulls((JSONObject) template);
-            result.put(name, visitFile(JsonUtils.copyJson(template), new JSONObject(), scope, new ArrayDeque<>(List.of(scope)), deadline));
+            // The template is only read from now on, so its parts without nulls are shared with the root
+            template = JsonUtils.withoutNulls((JSONObject) template);
+            result.put(name, visitFile(template, ScopeFrame.EMPTY, scope, new ArrayDeque<>(List.of(scope)), context));
         }
         return result;
     }
 
-    private static Object visitFile(Object template, JSONObject extraScope, JSONObject fullScope, Deque<Object> currentScope, long deadline) {
-        visit(template, extraScope, fullScope, currentScope, "$template", deadline);
-        return template;
+    /**
+     * Processes a single element of the <code>$files</code> array.
+     *
+     * @return The pair of file name and processed JSON.
+     */
+    private static Pair<String, Object> processFile(String name, JSONObject root, String fileName, JSONArray array, int i, JSONObject scope, JSONObject globalScope, Object sharedTemplate, Map<String, JsonModule> modules, RenderContext context) throws IOException {
+        context.checkDeadline();
+        boolean isCopy = root.has("$copy");
+        boolean isExtend = root.has("$extend");
+        boolean hasTemplate = root.has("$template");
+        Object template;
+        ScopeFrame extra = ScopeFrame.EMPTY.iteration("value", array.get(i), i);
+        if (isCopy) {
+            String copyPath =
+                    visitStringValue(root.getString("$copy"), extra, scope, new ArrayDeque<>(List.of(array.get(i))),
+                            name + "#/$copy", context);
+            if (copyPath.endsWith(".templ")) {
+                Map<String, Object> map =
+                        processCopy(copyPath, globalScope, modules, context);
+                if (map.values().size() != 1) {
+                    throw new JsonTemplatingException("Cannot copy a template, that produces multiple files!");
+                }
+                template = new JSONObject(map.get("copy"));
+            }
+            else {
+                template =
+                        new JSONObject(loadFile(copyPath).toString());
+            }
+        }
+        else if (sharedTemplate != null) {
+            template = sharedTemplate;
+        }
+        else {
+            template = root.get("$template");
+        }
+        if (isExtend) {
+            template =
+                    extendTemplate(root.get("$extend"), (JSONObject) template, scope, new ArrayDeque<>(List.of(array.get(i))), extra, context, modules);
+        }
+        if (isCopy && hasTemplate) {
+            template = JsonUtils.overlay(root.getJSONObject("$template"), (JSONObject) template);
+        }
+        if (template != sharedTemplate) {
+            template = JsonUtils.withoutNulls((JSONObject) template);
+        }
+        String mFileName =
+                (String) visit(fileName, extra, scope, new ArrayDeque<>(List.of(array.get(i))), "$files.fileName", context);
+        return new Pair<>(mFileName, visitFile(template, extra, scope, new ArrayDeque<>(List.of(array.get(i))), context));
+    }
+
+    private static Object visitFile(Object template, ScopeFrame extraScope, JSONObject fullScope, Deque<Object> currentScope, RenderContext context) {
+        return visit(template, extraScope, fullScope, currentScope, "$template", context);
     }
 
     public static JsonTemplateParser.LambdaContext resolveLambdaTree(String src, String path) {
+        return createParser(src, path).lambda();
+    }
+
+    /**
+     * Returns the compiled expression. Compiled expressions are immutable, so they are cached by the source of the
+     * expression and shared between all evaluations.
+     *
+     * @param src  The source of the expression
+     * @param path The path to the expression, used in syntax errors
+     * @return The compiled expression
+     */
+    public static CompiledExpression compileExpression(String src, String path) {
+        return EXPRESSION_CACHE.get(src, s -> new ExpressionCompiler().compile(createParser(s, path).expression()));
+    }
+
+    static ExpressionNode.Lambda compileLambda(String src, String path) {
+        return LAMBDA_CACHE.get(src, s -> new ExpressionCompiler().compile(createParser(s, path).lambda()));
+    }
+
+    /**
+     * Returns the cache of compiled expressions.
+     *
+     * @return The cache of compiled expressions
+     */
+    public static LruCache<String, CompiledExpression> getExpressionCache() {
+        return EXPRESSION_CACHE;
+    }
+
+    /**
+     * Returns the cache of compiled lambdas.
+     *
+     * @return The cache of compiled lambdas
+     */
+    public static LruCache<String, ?> getLambdaCache() {
+        return LAMBDA_CACHE;
+    }
+
+    private static JsonTemplateParser createParser(String src, String path) {
         JsonTemplateLexer lexer = new JsonTemplateLexer(CharStreams.fromString(src));
         JsonTemplateParser parser = new JsonTemplateParser(new CommonTokenStream(lexer));
         setErrorHandlers(src, path, lexer);
         setErrorHandlers(src, path, parser);
-        return parser.lambda();
+        return parser;
     }
 
     /**
@@ -353,12 +512,7 @@ public class JsonProcessor {
      * @return The resolved reference or null if the reference could not be resolved
      */
     public static ReferenceResult resolve(String reference, JSONObject extraScope, JSONObject fullScope, Deque<Object> thisInstance, String path) {
-        JsonTemplateLexer lexer = new JsonTemplateLexer(CharStreams.fromString(reference));
-        JsonTemplateParser parser = new JsonTemplateParser(new CommonTokenStream(lexer));
-        setErrorHandlers(reference, path, lexer);
-        setErrorHandlers(reference, path, parser);
-        JsonTemplateParser.ExpressionContext action = parser.expression();
-        return new ActionVisitor(extraScope, fullScope, thisInstance, path).visit(action);
+        return compileExpression(reference, path).evaluate(extraScope, fullScope, thisInstance, path);
     }
 
     private static void setErrorHandlers(String name, String path, Recognizer<?, ?> r) {
@@ -371,41 +525,39 @@ public class JsonProcessor {
         });
     }
 
-    private static Object visit(Object element, JSONObject extraScope, JSONObject fullScope, Deque<Object> currentScope, String path, long deadline) {
+    private static Object visit(Object element, ScopeFrame extraScope, JSONObject fullScope, Deque<Object> currentScope, String path, RenderContext context) {
         if (element instanceof JSONArray) {
-            return visitArray((JSONArray) element, extraScope, fullScope, currentScope, path, deadline);
+            return visitArray((JSONArray) element, extraScope, fullScope, currentScope, path, context);
         }
         else if (element instanceof JSONObject) {
-            return visitObject((JSONObject) element, extraScope, fullScope, currentScope, path, deadline);
+            return visitObject((JSONObject) element, extraScope, fullScope, currentScope, path, context);
         }
         else {
-            return visitValue(element, extraScope, fullScope, currentScope, path, deadline);
+            return visitValue(element, extraScope, fullScope, currentScope, path, context);
         }
     }
 
-    private static Object visitArray(JSONArray arr, JSONObject extraScope, JSONObject fullScope, Deque<Object> currentScope, String path, long deadline) {
+    private static Object visitArray(JSONArray arr, ScopeFrame extraScope, JSONObject fullScope, Deque<Object> currentScope, String path, RenderContext context) {
         JSONArray nArr = new JSONArray();
         for (int i = 0; i < arr.length(); i++) {
-            checkDeadline(deadline);
+            context.checkDeadline();
             if (arr.get(i) instanceof JSONObject &&
                     arr.getJSONObject(i).keySet().stream().filter(s -> !s.startsWith("$comment")).count() == 1) {
                 JSONObject obj = arr.getJSONObject(i);
                 String s = obj.keySet().stream().filter(s1 -> !s1.startsWith("$comment")).findFirst().orElse("");
                 if (s.startsWith("{{") && s.endsWith("}}")) {
-                    ReferenceResult e = resolve(s, extraScope, fullScope, currentScope, path + "[" + i + "]");
+                    ReferenceResult e = resolve(s, extraScope, fullScope, currentScope, path + "[" + i + "]", context);
                     switch (e.getAction()) {
                         case ITERATION:
                             if (e.getValue() instanceof JSONArray) {
                                 Object template = obj.get(s);
                                 JSONArray arr1 = (JSONArray) e.getValue();
                                 for (int i1 = 0; i1 < arr1.length(); i1++) {
-                                    checkDeadline(deadline);
-                                    JSONObject extra =
-                                            JsonUtils.createIterationExtraScope(extraScope, arr1, i1, e.getName());
-                                    Object copy = JsonUtils.copyJson(template);
+                                    context.checkDeadline();
+                                    ScopeFrame extra = extraScope.iteration(e.getName(), arr1.get(i1), i1);
                                     currentScope.push(arr1.get(i1));
-                                    copy = visit(copy, extra, fullScope, currentScope,
-                                            path + "[" + i + "]", deadline);
+                                    Object copy = visitShared(template, extra, fullScope, currentScope,
+                                            path + "[" + i + "]", context);
                                     nArr.put(copy);
                                     currentScope.pop();
                                 }
@@ -414,21 +566,21 @@ public class JsonProcessor {
                         case VALUE:
                         case LITERAL:
                             nArr.put(visit(arr.get(i), extraScope, fullScope, currentScope,
-                                    path + "[" + i + "]", deadline));
+                                    path + "[" + i + "]", context));
                             continue;
                         case PREDICATE:
                             if (JsonUtils.toBoolean(e.getValue())) {
-                                Object template;
+                                Object copy;
                                 if (obj.get(s) instanceof String && ((String) obj.get(s)).startsWith("{{")) {
-                                    template = visitValue(obj.getString(s), extraScope, fullScope, currentScope,
-                                            path + "/" + s, deadline);
+                                    Object template = visitValue(obj.getString(s), extraScope, fullScope, currentScope,
+                                            path + "/" + s, context);
+                                    copy = visit(JsonUtils.copyJson(template), extraScope, fullScope, currentScope,
+                                            path + "[" + i + "]" + "/" + s, context);
                                 }
                                 else {
-                                    template = obj.get(s);
+                                    copy = visitShared(obj.get(s), extraScope, fullScope, currentScope,
+                                            path + "[" + i + "]" + "/" + s, context);
                                 }
-                                Object copy = JsonUtils.copyJson(template);
-                                copy = visit(copy, extraScope, fullScope, currentScope,
-                                        path + "[" + i + "]" + "/" + s, deadline);
                                 nArr.put(copy);
                             }
                             continue;
@@ -438,7 +590,7 @@ public class JsonProcessor {
             if (arr.get(i) instanceof String && ((String) arr.get(i)).startsWith("{{") &&
                     ((String) arr.get(i)).endsWith("}}")) {
                 ReferenceResult e =
-                        resolve((String) arr.get(i), extraScope, fullScope, currentScope, path + "[" + i + "]");
+                        resolve((String) arr.get(i), extraScope, fullScope, currentScope, path + "[" + i + "]", context);
                 if (e.getAction() == JsonAction.LITERAL && e.getValue() instanceof JSONArray) {
                     nArr.putAll((JSONArray) e.getValue());
                 }
@@ -447,25 +599,23 @@ public class JsonProcessor {
                 }
                 continue;
             }
-            nArr.put(visit(arr.get(i), extraScope, fullScope, currentScope, path + "[" + i + "]", deadline));
+            nArr.put(visitShared(arr.get(i), extraScope, fullScope, currentScope, path + "[" + i + "]", context));
         }
-        arr.clear();
-        arr.putAll(nArr);
         return nArr;
     }
 
-    private static Object visitObject(JSONObject obj, JSONObject extraScope, JSONObject fullScope, Deque<Object> currentScope, String path, long deadline) {
-        List<String> toRemove = new ArrayList<>();
+    private static Object visitObject(JSONObject obj, ScopeFrame extraScope, JSONObject fullScope, Deque<Object> currentScope, String path, RenderContext context) {
+        Set<String> toRemove = new HashSet<>();
         Map<String, Object> toAdd = new LinkedHashMap<>();
         for (String s : obj.keySet()) {
-            if (ACTION_PATTERN.matcher(s).matches()) {
-                ReferenceResult e = resolve(s, extraScope, fullScope, currentScope, path);
+            StringTemplate key = s.indexOf("{{") != -1 ? context.getString(s) : null;
+            if (key != null && key.isAction()) {
+                ReferenceResult e = resolve(s, extraScope, fullScope, currentScope, path, context);
                 switch (e.getAction()) {
                     case LITERAL:
                         throw new UnsupportedOperationException("Integer cast is not supported in JSON keys!");
                     case VALUE:
-                        Object el = JsonUtils.copyJson(obj.get(s));
-                        el = visit(el, extraScope, fullScope, currentScope, path + "/" + s, deadline);
+                        Object el = visitShared(obj.get(s), extraScope, fullScope, currentScope, path + "/" + s, context);
                         toRemove.add(s);
                         toAdd.put(String.valueOf(e.getValue()), el);
                         break;
@@ -475,13 +625,11 @@ public class JsonProcessor {
                             JSONObject template = obj.getJSONObject(s);
                             JSONArray arr = (JSONArray) e.getValue();
                             for (int i = 0; i < arr.length(); i++) {
-                                checkDeadline(deadline);
-                                JSONObject extra =
-                                        JsonUtils.createIterationExtraScope(extraScope, arr, i, e.getName());
-                                JSONObject copy = (JSONObject) JsonUtils.copyJson(template);
+                                context.checkDeadline();
+                                ScopeFrame extra = extraScope.iteration(e.getName(), arr.get(i), i);
                                 currentScope.push(arr.get(i));
-                                copy = (JSONObject) visit(copy, extra, fullScope, currentScope,
-                                        path + "/" + s, deadline);
+                                JSONObject copy = (JSONObject) visitShared(template, extra, fullScope, currentScope,
+                                        path + "/" + s, context);
                                 for (String s1 : copy.keySet()) {
                                     toAdd.put(s1, copy.get(s1));
                                 }
@@ -492,23 +640,22 @@ public class JsonProcessor {
                     case PREDICATE:
                         toRemove.add(s);
                         if (JsonUtils.toBoolean(e.getValue())) {
-                            JSONObject template = null;
+                            JSONObject copy = null;
                             if (obj.get(s) instanceof JSONObject) {
-                                template = obj.getJSONObject(s);
+                                copy = (JSONObject) visitShared(obj.getJSONObject(s), extraScope, fullScope, currentScope,
+                                        path + "/" + s, context);
                             }
                             else if (obj.get(s) instanceof String && ((String) obj.get(s)).startsWith("{{")) {
                                 Object o = visitValue(obj.getString(s), extraScope, fullScope, currentScope,
-                                        path + "/" + s, deadline);
+                                        path + "/" + s, context);
                                 if (o instanceof JSONObject) {
-                                    template = (JSONObject) o;
+                                    copy = (JSONObject) visit(JsonUtils.copyJson(o), extraScope, fullScope, currentScope,
+                                            path + "/" + s, context);
                                 }
                             }
-                            if (template == null) {
+                            if (copy == null) {
                                 throw new JsonTemplatingException("Predicate value is not an object!", path + "/" + s);
                             }
-                            JSONObject copy = (JSONObject) JsonUtils.copyJson(template);
-                            copy = (JSONObject) visit(copy, extraScope, fullScope, currentScope,
-                                    path + "/" + s, deadline);
                             for (String s1 : copy.keySet()) {
                                 toAdd.put(s1, copy.get(s1));
                             }
@@ -520,33 +667,70 @@ public class JsonProcessor {
                 toRemove.add(s);
             }
             else {
-                StringBuffer sb = visitStringValue(s, extraScope, fullScope, currentScope, path);
-                Object el = JsonUtils.copyJson(obj.get(s));
-                el = visit(el, extraScope, fullScope, currentScope, path + "/" + s, deadline);
-                if (!s.equals(sb.toString()) || !el.toString().equals(obj.get(s).toString())) {
+                String name = key != null ? visitStringValue(key, extraScope, fullScope, currentScope, path, context) : s;
+                Object value = obj.get(s);
+                Object el = visitShared(value, extraScope, fullScope, currentScope, path + "/" + s, context);
+                if (!s.equals(name) || !isUnchanged(value, el, context)) {
                     toRemove.add(s);
-                    toAdd.put(sb.toString(), el);
+                    toAdd.put(name, el);
                 }
             }
         }
-        for (String s : toRemove) {
-            obj.remove(s);
+        JSONObject result = new JSONObject();
+        for (String s : obj.keySet()) {
+            if (!toRemove.contains(s)) {
+                result.put(s, obj.get(s));
+            }
         }
         for (String s : toAdd.keySet()) {
-            obj.put(s, toAdd.get(s));
+            result.put(s, toAdd.get(s));
+        }
+        return result;
+    }
+
+    /**
+     * Visits an element of the template. Objects and arrays without any templates are rendered once per rendering
+     * without visiting them, see {@link StaticNode}. The result is shared by all places, that use them and often with
+     * the template itself, so the result must not be modified.
+     */
+    private static Object visitShared(Object element, ScopeFrame extraScope, JSONObject fullScope, Deque<Object> currentScope, String path, RenderContext context) {
+        if (!context.isStatic(element)) {
+            return visit(element, extraScope, fullScope, currentScope, path, context);
+        }
+        return context.renderStatic(element).getRendered();
+    }
+
+    private static boolean isUnchanged(Object value, Object visited, RenderContext context) {
+        if (!context.isStatic(value)) {
+            return visited.toString().equals(value.toString());
         }
-        return obj;
+        return context.renderStatic(value).isUnchanged();
     }
 
-    private static Object visitValue(Object element, JSONObject extraScope, JSONObject fullScope, Deque<Object> currentScope, String path, long deadline) {
-        Matcher m = TEMPLATE_PATTERN.matcher(String.valueOf(element));
+    private static Object visitValue(Object element, ScopeFrame extraScope, JSONObject fullScope, Deque<Object> currentScope, String path, RenderContext context) {
+        if (element instanceof Number) {
+            // Visiting a number turns it into a float, even a long one
+            return Float.parseFloat(element.toString());
+        }
+        if (element instanceof Boolean) {
+            return element;
+        }
+        String source = String.valueOf(element);
+        if (source.indexOf("{{") == -1) {
+            return source;
+        }
+        StringTemplate string = context.getString(source);
+        int count = string.getExpressionCount();
+        if (count == 0) {
+            return source;
+        }
         StringBuilder sb = new StringBuilder();
-        boolean isNumber = element instanceof Number;
-        boolean isLong = element instanceof Long;
-        boolean isBoolean = element instanceof Boolean;
-        while (m.find()) {
-            String toReplace = m.group(0);
-            ReferenceResult resolve = resolve(toReplace, extraScope, fullScope, currentScope, path);
+        boolean isNumber = false;
+        boolean isBoolean = false;
+        for (int i = 0; i < count; i++) {
+            sb.append(string.getLiteral(i));
+            String toReplace = string.getExpression(i);
+            ReferenceResult resolve = resolve(toReplace, extraScope, fullScope, currentScope, path, context);
             if (resolve.getAction() == JsonAction.LITERAL) {
                 if (resolve.getValue() instanceof Boolean) {
                     isBoolean = true;
@@ -572,12 +756,12 @@ public class JsonProcessor {
             if (resolve.getValue() instanceof JSONObject || resolve.getValue() instanceof JSONArray || resolve.getValue() instanceof Map || resolve.getValue() instanceof List) {
                 return resolve.getValue();
             }
-            m.appendReplacement(sb, Matcher.quoteReplacement(String.valueOf(resolve.getValue())));
+            sb.append(resolve.getValue());
         }
-        m.appendTail(sb);
+        sb.append(string.getLiteral(count));
         if (isNumber) {
             try {
-                return isLong ? Long.parseLong(sb.toString()) : Float.parseFloat(sb.toString());
+                return Float.parseFloat(sb.toString());
             } catch (NumberFormatException e) {
                 throw new JsonTemplatingException("Expected a number, but got \"" + sb + "\"", path);
             }
@@ -588,26 +772,33 @@ public class JsonProcessor {
         return sb.toString();
     }
 
-    private static StringBuffer visitStringValue(String string, JSONObject extraScope, JSONObject fullScope, Deque<Object> currentScope, String path) {
-        Matcher m = TEMPLATE_PATTERN.matcher(string);
-        StringBuffer sb = new StringBuffer();
-        while (m.find()) {
-            String toReplace = m.group(0);
-            ReferenceResult resolve = resolve(toReplace, extraScope, fullScope, currentScope, path);
+    private static String visitStringValue(String string, ScopeFrame extraScope, JSONObject fullScope, Deque<Object> currentScope, String path, RenderContext context) {
+        if (string.indexOf("{{") == -1) {
+            return string;
+        }
+        return visitStringValue(context.getString(string), extraScope, fullScope, currentScope, path, context);
+    }
+
+    private static String visitStringValue(StringTemplate string, ScopeFrame extraScope, JSONObject fullScope, Deque<Object> currentScope, String path, RenderContext context) {
+        int count = string.getExpressionCount();
+        if (count == 0) {
+            return string.getLiteral(0);
+        }
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            sb.append(string.getLiteral(i));
+            ReferenceResult resolve = resolve(string.getExpression(i), extraScope, fullScope, currentScope, path, context);
             if (resolve.getAction() != JsonAction.VALUE) {
                 throw new UnsupportedOperationException("Cannot execute action here!");
             }
-            m.appendReplacement(sb, Matcher.quoteReplacement(String.valueOf(resolve
-                    .getValue())));
+            sb.append(resolve.getValue());
         }
-        m.appendTail(sb);
-        return sb;
+        sb.append(string.getLiteral(count));
+        return sb.toString();
     }
 
-    private static void checkDeadline(long deadline) {
-        if (System.currentTimeMillis() > deadline) {
-            throw new RuntimeException("JSON generation time has been limited.");
-        }
+    private static ReferenceResult resolve(String reference, ScopeFrame extraScope, JSONObject fullScope, Deque<Object> thisInstance, String path, RenderContext context) {
+        return context.getExpression(reference, path).evaluate(extraScope, fullScope, thisInstance, path, context);
     }
 
     public static void register(Class<?> cls) {
@@ -628,14 +819,7 @@ public class JsonProcessor {
                     }
                 }
                 defineFunction(name)
-                        .addImplementation(objects -> {
-                            try {
-                                return method.invoke(null, objects);
-                            } catch (IllegalAccessException | InvocationTargetException e) {
-                                e.printStackTrace();
-                                return null;
-                            }
-                        }, types);
+                        .addImplementation(bind(method), types);
             }
             if (method.isAnnotationPresent(JSONInstanceFunction.class)) {
                 method.setAccessible(true);
@@ -657,14 +841,7 @@ public class JsonProcessor {
                     }
                 }
                 defineInstanceFunction(instanceClass, name)
-                        .addImplementation(objects -> {
-                            try {
-                                return method.invoke(null, objects);
-                            } catch (IllegalAccessException | InvocationTargetException e) {
-                                e.printStackTrace();
-                                return null;
-                            }
-                        }, types);
+                        .addImplementation(bind(method), types);
             }
             if (method.isAnnotationPresent(JSONUnsafe.class)) {
                 String name = method.getName();
@@ -673,4 +850,29 @@ public class JsonProcessor {
         }
     }
 
+    /**
+     * Binds a function to a method handle, that takes the parameters as an array, so calls don't go through
+     * reflection.
+     */
+    private static Function<Object[], Object> bind(Method method) {
+        MethodHandle handle;
+        try {
+            handle = MethodHandles.lookup()
+                    .unreflect(method)
+                    .asSpreader(Object[].class, method.getParameterCount())
+                    .asType(MethodType.methodType(Object.class, Object[].class));
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException("Registered function " + method.getName() + " is not accessible", e);
+        }
+        return objects -> {
+            try {
+                return (Object) handle.invokeExact(objects);
+            } catch (Throwable e) {
+                // Like with reflective calls, a failing function is reported and returns null
+                e.printStackTrace();
+                return null;
+            }
+        };
+    }
+
 }
@@ -1,6 +1,10 @@
 package com.glowfischdesignstudio.jsonte;
 
 import com.glowfischdesignstudio.jsonte.exception.JsonTemplatingException;
+import com.glowfischdesignstudio.jsonte.functions.impl.MinecraftFunctions;
+import com.glowfischdesignstudio.jsonte.utils.AssetIndex;
+import com.glowfischdesignstudio.jsonte.utils.CachingFileLoader;
+import com.glowfischdesignstudio.jsonte.utils.FileSnapshot;
 import com.glowfischdesignstudio.jsonte.utils.FileUtils;
 import com.glowfischdesignstudio.jsonte.utils.JsonUtils;
 import com.glowfischdesignstudio.jsonte.utils.PipeExtensions;
@@ -11,27 +15,40 @@ import org.json.JSONObject;
 
 import java.io.File;
 import java.io.IOException;
-import java.nio.file.FileSystems;
-import java.nio.file.Files;
-import java.nio.file.PathMatcher;
+import java.io.UncheckedIOException;
+import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 public class Main {
     private static final Pattern MCFUNCTION_PATTERN = Pattern.compile("#\\{((?:\\\\.|[^{}])+)}");
+    private static final long FILE_CACHE_SIZE = Long.getLong("jsonte.fileCacheSize", 64L * 1024 * 1024);
 
     public static void main(String[] args) {
         if (args.length > 0) {
             String action = args[0];
             JSONObject scope = new JSONObject();
             File out = null;
+            File cache = null;
             List<String> input = new ArrayList<>();
             List<PathMatcher> include = new ArrayList<>();
             List<PathMatcher> exclude = new ArrayList<>();
             boolean removeSource = false;
+            boolean incremental = false;
+            boolean watch = false;
+            File vanillaPacks = null;
+            List<File> scopeFiles = new ArrayList<>();
             int indent = 2;
+            int jobs = Runtime.getRuntime().availableProcessors();
             int i = 1;
             for (; i < args.length; i++) {
                 if (args[i].equalsIgnoreCase("--remove-src")) {
@@ -40,41 +57,18 @@ public class Main {
                 else if (args[i].equalsIgnoreCase("--minify")) {
                     indent = 0;
                 }
+                else if (args[i].equalsIgnoreCase("--incremental")) {
+                    incremental = true;
+                }
+                else if (args[i].equalsIgnoreCase("--watch")) {
+                    watch = true;
+                }
                 else if (args[i].startsWith("--") && args.length > i + 1) {
                     if (args[i].equalsIgnoreCase("--scope")) {
                         i++;
-                        try {
-                            File in = new File(args[i]);
-                            if (in.exists()) {
-                                BasicFileAttributes attributes =
-                                        Files.readAttributes(in.toPath(), BasicFileAttributes.class);
-                                if (attributes.isRegularFile()) {
-                                    try {
-                                        JsonUtils.merge(scope, Pipe.from(in).to(PipeExtensions.JSON_OBJECT));
-                                    } catch (RuntimeIOException e) {
-                                        throw new RuntimeException("Failed to read file: " + in.getAbsolutePath(), e);
-                                    }
-                                }
-                                else if (attributes.isDirectory()) {
-                                    File[] files = in.listFiles(pathname -> pathname.getName().endsWith(".json"));
-                                    if (files != null) {
-                                        for (File file : files) {
-                                            try {
-                                                JsonUtils.merge(scope, Pipe.from(file).to(PipeExtensions.JSON_OBJECT));
-                                            } catch (RuntimeIOException e) {
-                                                throw new RuntimeException(
-                                                        "Failed to read file: " + file.getAbsolutePath(), e);
-                                            }
-                                        }
-                                    }
-                                }
-                            }
-                            else {
-                                System.out.println("Could not find scope file/directory: " + in.getAbsolutePath());
-                            }
-                        } catch (IOException e) {
-                            throw new JsonTemplatingException("Failed to load the scope", e);
-                        }
+                        File in = new File(args[i]);
+                        scopeFiles.add(in);
+                        loadScope(scope, in);
                     }
                     else if (args[i].equalsIgnoreCase("--out")) {
                         i++;
@@ -86,6 +80,36 @@ public class Main {
                             throw new JsonTemplatingException("Output file is not a directory");
                         }
                     }
+                    else if (args[i].equalsIgnoreCase("--cache")) {
+                        i++;
+                        cache = new File(args[i]);
+                        if (!cache.exists()) {
+                            cache.mkdirs();
+                        }
+                        if (!cache.isDirectory()) {
+                            throw new JsonTemplatingException("Cache path is not a directory");
+                        }
+                    }
+                    else if (args[i].equalsIgnoreCase("--vanilla-packs")) {
+                        i++;
+                        File packs = new File(args[i]);
+                        if (!packs.isDirectory()) {
+                            throw new JsonTemplatingException("Vanilla packs path is not a directory");
+                        }
+                        MinecraftFunctions.setPackRoot(packs);
+                        vanillaPacks = packs;
+                    }
+                    else if (args[i].equalsIgnoreCase("--jobs")) {
+                        i++;
+                        try {
+                            jobs = Integer.parseInt(args[i]);
+                        } catch (NumberFormatException e) {
+                            throw new JsonTemplatingException("Invalid number of jobs \"" + args[i] + "\"", e);
+                        }
+                        if (jobs < 1) {
+                            throw new JsonTemplatingException("Number of jobs must be at least 1");
+                        }
+                    }
                     else if (args[i].equalsIgnoreCase("--include")) {
                         i++;
                         try {
@@ -136,75 +160,119 @@ public class Main {
             }
             else if (action.equalsIgnoreCase("compile")) {
                 if (input.size() > 0) {
-                    List<File> files = input.stream()
+                    if (incremental && out == null) {
+                        throw new JsonTemplatingException("Incremental builds require an output directory");
+                    }
+                    if (incremental && cache == null) {
+                        throw new JsonTemplatingException("Incremental builds require a cache directory");
+                    }
+                    if (incremental && removeSource) {
+                        throw new JsonTemplatingException("Incremental builds can't remove source files");
+                    }
+                    if (watch && removeSource) {
+                        throw new JsonTemplatingException("Watch mode can't remove source files");
+                    }
+                    Predicate<File> filter = f -> (include.isEmpty() && exclude.isEmpty()) ||
+                            (include.stream().anyMatch(m -> m.matches(f.toPath())) ||
+                                    exclude.stream().noneMatch(m -> m.matches(f.toPath())));
+                    List<File> inputs = input.stream()
                             .map(File::new)
                             .filter(File::exists)
+                            .collect(Collectors.toList());
+                    List<File> files = inputs.stream()
                             .flatMap(FileUtils::expand)
-                            .filter(f -> (include.isEmpty() && exclude.isEmpty()) ||
-                                    (include.stream().anyMatch(m -> m.matches(f.toPath())) ||
-                                            exclude.stream().noneMatch(m -> m.matches(f.toPath()))))
+                            .filter(filter)
                             .collect(Collectors.toList());
                     File finalOut = out;
+                    int finalIndent = indent;
+                    boolean track = incremental || watch;
+                    // Data files are usually loaded by many templates
+                    JsonProcessor.FILE_LOADER = new CachingFileLoader(FILE_CACHE_SIZE);
+                    // The asset index is kept between builds, when there is a cache directory
+                    File assetIndexFile = cache != null ? new File(cache, AssetIndex.FILE_NAME) : null;
+                    JsonProcessor.ASSET_INDEX = assetIndexFile != null ? AssetIndex.load(assetIndexFile) : new AssetIndex();
+                    JsonProcessor.FILE_SNAPSHOT = new FileSnapshot();
+                    ForkJoinPool pool = new ForkJoinPool(jobs);
+                    List<String> errors = new ArrayList<>();
                     Map<String, JsonModule> modules = new HashMap<>();
-                    files.stream().filter(file -> file.getName().endsWith(".modl")).forEach(file -> {
-                        System.out.println("Processing " + file.getName());
-                        try {
-                            JsonModule module = JsonProcessor.processModule(Pipe.from(file).toString());
-                            modules.put(module.getName(), module);
-                        } catch (IOException e) {
-                            throw new JsonTemplatingException("Failed to read file: " + file.getAbsolutePath(), e);
+                    BuildManifest manifest = incremental ?
+                            BuildManifest.load(cache, getOptionsHash(indent, vanillaPacks, scope)) : null;
+                    Watcher watcher = watch ?
+                            new Watcher(pool, inputs, filter, scopeFiles, scope, modules, out, indent) : null;
+                    int[] upToDate = {0};
+                    try {
+                        errors.addAll(processFiles(pool, files, ".modl", Main::processModule, result -> {
+                            modules.put(result.module.getName(), result.module);
+                            if (manifest != null) {
+                                manifest.putModule(result.module.getName(), result.hash);
+                            }
+                            if (watcher != null) {
+                                watcher.updateModule(result);
+                            }
+                        }));
+                        // Copied templates are rendered once per build
+                        JsonProcessor.setCopyCache(true);
+                        errors.addAll(processFiles(pool, files, ".templ", (file, result) ->
+                                compileTemplate(file, result, scope, modules, finalOut, finalIndent, manifest, track), result -> {
+                            if (manifest == null) {
+                                writeResult(result);
+                            }
+                            else if (result.upToDate) {
+                                manifest.keep(result.file);
+                                upToDate[0]++;
+                            }
+                            else {
+                                writeResult(result);
+                                manifest.put(result.file, result.entry);
+                            }
+                            if (watcher != null) {
+                                watcher.updateTemplate(result);
+                            }
+                        }, result -> {
+                            if (manifest != null) {
+                                manifest.fail(result.file);
+                            }
+                            if (watcher != null) {
+                                watcher.updateTemplate(result);
+                            }
+                        }));
+                        JsonProcessor.setCopyCache(false);
+                        if (manifest != null) {
+                            int removed = manifest.save();
+                            System.out.println(upToDate[0] + " template(s) up to date, " + removed + " removed");
                         }
-                    });
-                    int finalIndent = indent;
-                    files.stream().filter(file -> file.getName().endsWith(".templ")).forEach(file -> {
-                        System.out.println("Compiling " + file.getName());
-                        try {
-                            String name = file.getName().substring(0, file.getName().lastIndexOf('.'));
-                            Pipe.from(file)
-                                    .split(pipe -> JsonProcessor.processJson(name, pipe.toString(), scope, 0, modules)
-                                            .entrySet()
-                                            .stream()
-                                            .map(e -> Pipe.from(StringUtils.toString(e.getValue(), finalIndent))
-                                                    .with("name", e.getKey()))
-                                            .collect(Collectors.toList()))
-                                    .forEach(pipe -> {
-                                        if (finalOut != null && finalOut.exists()) {
-                                            File f = new File(finalOut,
-                                                    file.getParentFile().getPath() + "/" + pipe.get("name") + ".json");
-                                            f.getParentFile().mkdirs();
-                                            RuntimeIOException.wrap(() -> pipe.to(f));
-                                        }
-                                        else {
-                                            System.out.println(pipe.get("name") + ".json" + ":");
-                                            System.out.println(pipe);
-                                        }
-                                    });
-                        } catch (IOException e) {
-                            throw new JsonTemplatingException("Failed to read file: " + file.getAbsolutePath(), e);
-                        }
-                    });
-                    if (removeSource) {
-                        if (!files.stream()
-                                .filter(file -> file.getName().endsWith(".templ") || file.getName().endsWith(".modl"))
-                                .peek(file -> System.out.println("Removing " + file.getName()))
-                                .allMatch(File::delete)) {
-                            System.out.println("Failed to delete some files");
-                        }
-                    }
-                    files.stream().filter(file -> file.getName().endsWith(".mcfunction")).forEach(file -> {
-                        System.out.println("Templating " + file.getName());
-                        try {
-                            //TODO: Move this to a separate function
-                            String s = Pipe.from(file).toString();
-                            s = MCFUNCTION_PATTERN.matcher(s).replaceAll(m -> {
-                                String name = m.group(1);
-                                return StringUtils.toString(JsonProcessor.resolve(name, scope, file.getName()).getValue(), 0);
-                            });
-                            Pipe.from(s).to(file);
-                        } catch (IOException e) {
-                            throw new JsonTemplatingException("Failed to read file: " + file.getAbsolutePath(), e);
-                        }
-                    });
+                        if (assetIndexFile != null) {
+                            JsonProcessor.ASSET_INDEX.save(assetIndexFile);
+                        }
+                        if (removeSource) {
+                            if (!errors.isEmpty()) {
+                                System.out.println("Not removing source files, because some files failed");
+                            }
+                            else if (!files.stream()
+                                    .filter(file -> file.getName().endsWith(".templ") || file.getName().endsWith(".modl"))
+                                    .peek(file -> System.out.println("Removing " + file.getName()))
+                                    .allMatch(File::delete)) {
+                                System.out.println("Failed to delete some files");
+                            }
+                        }
+                        errors.addAll(processFiles(pool, files, ".mcfunction", (file, result) ->
+                                templateFunction(file, result, scope), Main::writeResult));
+                        if (watcher != null) {
+                            if (!errors.isEmpty()) {
+                                System.err.println(errors.size() + " file(s) failed");
+                            }
+                            watcher.run();
+                            return;
+                        }
+                    } finally {
+                        JsonProcessor.setCopyCache(false);
+                        pool.shutdown();
+                    }
+                    if (!errors.isEmpty()) {
+                        System.err.println(errors.size() + " file(s) failed:");
+                        errors.forEach(System.err::println);
+                        throw new JsonTemplatingException("Failed to compile " + errors.size() + " file(s)!");
+                    }
                 }
                 else {
                     throw new JsonTemplatingException("No files provided!");
@@ -216,6 +284,500 @@ public class Main {
         }
     }
 
+    /**
+     * Returns a hash of everything besides templates, modules and files, that affects the outputs of a build.
+     *
+     * @param vanillaPacks Directory with vanilla packs or null, if the Minecraft installation is used.
+     */
+    private static String getOptionsHash(int indent, File vanillaPacks, JSONObject scope) {
+        String version = Main.class.getPackage().getImplementationVersion();
+        String packs = vanillaPacks != null ? vanillaPacks.toPath().toAbsolutePath().normalize().toString() : "";
+        return BuildManifest.hash((version != null ? version : "development") + ":" + packs + ":" + indent + ":" + scope);
+    }
+
+    private static void loadScope(JSONObject scope, File in) {
+        try {
+            if (in.exists()) {
+                BasicFileAttributes attributes = Files.readAttributes(in.toPath(), BasicFileAttributes.class);
+                if (attributes.isRegularFile()) {
+                    try {
+                        JsonUtils.merge(scope, Pipe.from(in).to(PipeExtensions.JSON_OBJECT));
+                    } catch (RuntimeIOException e) {
+                        throw new RuntimeException("Failed to read file: " + in.getAbsolutePath(), e);
+                    }
+                }
+                else if (attributes.isDirectory()) {
+                    File[] files = in.listFiles(pathname -> pathname.getName().endsWith(".json"));
+                    if (files != null) {
+                        for (File file : files) {
+                            try {
+                                JsonUtils.merge(scope, Pipe.from(file).to(PipeExtensions.JSON_OBJECT));
+                            } catch (RuntimeIOException e) {
+                                throw new RuntimeException("Failed to read file: " + file.getAbsolutePath(), e);
+                            }
+                        }
+                    }
+                }
+            }
+            else {
+                System.out.println("Could not find scope file/directory: " + in.getAbsolutePath());
+            }
+        } catch (IOException e) {
+            throw new JsonTemplatingException("Failed to load the scope", e);
+        }
+    }
+
+    private static void processModule(File file, FileResult result) throws IOException {
+        result.log("Processing " + file.getName());
+        String source = Pipe.from(file).toString();
+        result.module = JsonProcessor.processModule(source);
+        result.hash = BuildManifest.hash(source);
+    }
+
+    /**
+     * Compiles a template. Outputs are written to the output directory, or logged, if there is none.
+     *
+     * @param manifest Manifest of an incremental build or null.
+     * @param track    Whether to record the dependencies of the template.
+     */
+    private static void compileTemplate(File file, FileResult result, JSONObject scope, Map<String, JsonModule> modules, File out, int indent, BuildManifest manifest, boolean track) throws IOException {
+        String source = Pipe.from(file).toString();
+        if (manifest != null) {
+            result.hash = BuildManifest.hash(source);
+            if (manifest.isUpToDate(file, result.hash)) {
+                result.upToDate = true;
+                result.dependencies.addAll(manifest.getDependencies(file));
+                result.outputs.addAll(manifest.getOutputs(file));
+                return;
+            }
+        }
+        result.log("Compiling " + file.getName());
+        String name = file.getName().substring(0, file.getName().lastIndexOf('.'));
+        Set<String> previous = Dependencies.track(track ? result.dependencies : null);
+        Map<String, Object> output;
+        try {
+            output = JsonProcessor.processJson(name, source, scope, 0, modules);
+        } finally {
+            Dependencies.track(previous);
+        }
+        for (Map.Entry<String, Object> e : output.entrySet()) {
+            String content = StringUtils.toString(e.getValue(), indent);
+            if (out != null && out.exists()) {
+                // Outputs are compared with the ones recorded by the manifest, which are absolute
+                File target = new File(out, file.getParentFile().getPath() + "/" + e.getKey() + ".json");
+                result.writes.put(target.toPath().toAbsolutePath().normalize().toFile(), content);
+            }
+            else {
+                result.log(e.getKey() + ".json" + ":");
+                result.log(content);
+            }
+        }
+        result.outputs.addAll(result.writes.keySet());
+        if (manifest != null) {
+            result.entry = manifest.createEntry(result.hash, result.dependencies, result.writes.keySet());
+        }
+    }
+
+    private static void templateFunction(File file, FileResult result, JSONObject scope) throws IOException {
+        result.log("Templating " + file.getName());
+        //TODO: Move this to a separate function
+        String s = Pipe.from(file).toString();
+        if (MCFUNCTION_PATTERN.matcher(s).find()) {
+            s = MCFUNCTION_PATTERN.matcher(s).replaceAll(m -> {
+                String name = m.group(1);
+                return StringUtils.toString(JsonProcessor.resolve(name, scope, file.getName()).getValue(), 0);
+            });
+            result.writes.put(file, s);
+        }
+    }
+
+    /**
+     * Processes all files with given extension in parallel. Results are handled on the calling thread in the order of
+     * the files, so the output doesn't depend on the order in which the files were processed.
+     *
+     * @return Error messages for files, that failed.
+     */
+    private static List<String> processFiles(ForkJoinPool pool, List<File> files, String extension, FileTask task, Consumer<FileResult> onDone) {
+        return processFiles(pool, files, extension, task, onDone, result -> {
+        });
+    }
+
+    private static List<String> processFiles(ForkJoinPool pool, List<File> files, String extension, FileTask task, Consumer<FileResult> onDone, Consumer<FileResult> onError) {
+        List<ForkJoinTask<FileResult>> tasks = files.stream()
+                .filter(file -> file.getName().endsWith(extension))
+                .map(file -> pool.submit(() -> {
+                    FileResult result = new FileResult(file);
+                    try {
+                        task.process(file, result);
+                    } catch (Exception e) {
+                        result.error = e;
+                    }
+                    return result;
+                }))
+                .collect(Collectors.toList());
+        List<String> errors = new ArrayList<>();
+        for (int i = 0; i < tasks.size(); i++) {
+            FileResult result = tasks.get(i).join();
+            System.out.print(result.log);
+            if (result.error == null) {
+                try {
+                    onDone.accept(result);
+                } catch (Exception e) {
+                    result.error = e;
+                }
+            }
+            if (result.error != null) {
+                String message = result.file + ": " + (result.error.getMessage() != null ? result.error.getMessage() : result.error);
+                System.err.println("Failed to process " + message);
+                errors.add(message);
+                onError.accept(result);
+            }
+        }
+        System.out.flush();
+        return errors;
+    }
+
+    private static void writeResult(FileResult result) {
+        for (Map.Entry<File, String> e : result.writes.entrySet()) {
+            e.getKey().getParentFile().mkdirs();
+            RuntimeIOException.wrap(() -> Pipe.from(e.getValue()).to(e.getKey()));
+        }
+    }
+
+    @FunctionalInterface
+    private interface FileTask {
+        void process(File file, FileResult result) throws IOException;
+    }
+
+    /**
+     * Result of processing a single file. Console output and writes are buffered until the result is handled.
+     */
+    private static class FileResult {
+        private final StringBuilder log = new StringBuilder();
+        private final Map<File, String> writes = new LinkedHashMap<>();
+        private final Set<String> dependencies = ConcurrentHashMap.newKeySet();
+        private final Set<File> outputs = new LinkedHashSet<>();
+        private final File file;
+        private JsonModule module;
+        private Exception error;
+        private String hash;
+        private boolean upToDate;
+        private JSONObject entry;
+
+        private FileResult(File file) {
+            this.file = file;
+        }
+
+        private void log(String line) {
+            log.append(line).append(System.lineSeparator());
+        }
+    }
+
+    /**
+     * Keeps the outputs up to date after the first build. Dependencies recorded while compiling templates are used to
+     * find the templates affected by a change, so only those are compiled again.
+     */
+    private static class Watcher {
+        // Editors often save a file in several steps, so changes are collected until there are none for a moment
+        private static final long SETTLE_TIME = 100;
+
+        private final ForkJoinPool pool;
+        private final List<File> inputs;
+        private final Predicate<File> filter;
+        private final List<File> scopeFiles;
+        private final Map<String, JsonModule> modules;
+        private final File out;
+        private final int indent;
+        private final Map<Path, String> moduleNames = new HashMap<>();
+        private final Map<Path, File> templates = new HashMap<>();
+        private final Map<Path, Set<String>> dependencies = new HashMap<>();
+        private final Map<Path, Set<File>> outputs = new HashMap<>();
+        private final Set<Path> written = new HashSet<>();
+        private final Map<WatchKey, Path> keys = new HashMap<>();
+        private final Set<Path> registered = new HashSet<>();
+        private JSONObject scope;
+        private WatchService service;
+        private boolean overflow;
+
+        private Watcher(ForkJoinPool pool, List<File> inputs, Predicate<File> filter, List<File> scopeFiles, JSONObject scope, Map<String, JsonModule> modules, File out, int indent) {
+            this.pool = pool;
+            this.inputs = inputs;
+            this.filter = filter;
+            this.scopeFiles = scopeFiles;
+            this.scope = scope;
+            this.modules = modules;
+            this.out = out;
+            this.indent = indent;
+        }
+
+        private void updateModule(FileResult result) {
+            moduleNames.put(absolute(result.file.toPath()), result.module.getName());
+        }
+
+        private void updateTemplate(FileResult result) {
+            Path path = absolute(result.file.toPath());
+            templates.put(path, result.file);
+            dependencies.put(path, new HashSet<>(result.dependencies));
+            if (result.error != null) {
+                // Outputs of a failed template are kept until it compiles again
+                return;
+            }
+            Set<File> old = outputs.put(path, result.outputs);
+            if (old != null) {
+                for (File f : old) {
+                    if (!result.outputs.contains(f)) {
+                        removeOutput(f);
+                    }
+                }
+            }
+            result.outputs.forEach(f -> written.add(absolute(f.toPath())));
+        }
+
+        private void removeTemplate(Path path) {
+            templates.remove(path);
+            dependencies.remove(path);
+            Set<File> old = outputs.remove(path);
+            if (old != null) {
+                old.forEach(this::removeOutput);
+            }
+        }
+
+        private void removeOutput(File f) {
+            if (outputs.values().stream().anyMatch(o -> o.contains(f))) {
+                // Another template writes the same file
+                return;
+            }
+            written.remove(absolute(f.toPath()));
+            if (f.exists()) {
+                System.out.println("Removing " + f.getPath());
+                if (!f.delete()) {
+                    System.out.println("Failed to remove " + f.getPath());
+                }
+            }
+        }
+
+        private void run() {
+            try {
+                service = FileSystems.getDefault().newWatchService();
+            } catch (IOException e) {
+                throw new JsonTemplatingException("Failed to watch for changes", e);
+            }
+            for (File input : inputs) {
+                registerTree(input.isDirectory() ? input.toPath() : parent(input.toPath()));
+            }
+            for (File scopeFile : scopeFiles) {
+                register(scopeFile.isDirectory() ? scopeFile.toPath() : parent(scopeFile.toPath()));
+            }
+            registerDependencies();
+            System.out.println("Watching for changes...");
+            System.out.flush();
+            try {
+                while (true) {
+                    Set<Path> changed = new LinkedHashSet<>();
+                    collect(service.take(), changed);
+                    WatchKey key;
+                    while ((key = service.poll(SETTLE_TIME, TimeUnit.MILLISECONDS)) != null) {
+                        collect(key, changed);
+                    }
+                    changed.removeIf(p -> !isRelevant(p));
+                    if (!changed.isEmpty() || overflow) {
+                        rebuild(changed);
+                        registerDependencies();
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                try {
+                    service.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+
+        private void collect(WatchKey key, Set<Path> changed) {
+            Path dir = keys.get(key);
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW || dir == null) {
+                    overflow = true;
+                    continue;
+                }
+                Path path = dir.resolve((Path) event.context());
+                if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(path)) {
+                    // Files could have been created before the directory was registered
+                    registerTree(path);
+                    FileUtils.expand(path.toFile()).map(File::toPath).forEach(changed::add);
+                }
+                changed.add(path);
+            }
+            if (!key.reset()) {
+                keys.remove(key);
+                registered.remove(absolute(dir));
+            }
+        }
+
+        private void rebuild(Set<Path> changed) {
+            // Directories may have changed since the last build
+            JsonProcessor.FILE_SNAPSHOT = new FileSnapshot();
+            Set<Path> changedPaths = changed.stream().map(Watcher::absolute).collect(Collectors.toSet());
+            boolean all = overflow;
+            overflow = false;
+            if (changed.stream().anyMatch(this::isScope)) {
+                try {
+                    JSONObject newScope = new JSONObject();
+                    for (File scopeFile : scopeFiles) {
+                        loadScope(newScope, scopeFile);
+                    }
+                    scope = newScope;
+                    all = true;
+                } catch (Exception e) {
+                    System.err.println("Failed to reload the scope: " + e.getMessage());
+                }
+            }
+
+            Set<String> changedModules = new HashSet<>();
+            List<File> moduleFiles = new ArrayList<>();
+            for (Path path : changed) {
+                if (path.toString().endsWith(".modl") && isInput(path)) {
+                    String old = moduleNames.remove(absolute(path));
+                    if (old != null) {
+                        modules.remove(old);
+                        changedModules.add(old);
+                    }
+                    if (Files.isRegularFile(path) && filter.test(path.toFile())) {
+                        moduleFiles.add(path.toFile());
+                    }
+                }
+            }
+            List<String> errors = new ArrayList<>(processFiles(pool, moduleFiles, ".modl", Main::processModule, result -> {
+                modules.put(result.module.getName(), result.module);
+                changedModules.add(result.module.getName());
+                updateModule(result);
+            }));
+
+            Map<Path, File> affected = new LinkedHashMap<>();
+            for (Path path : changed) {
+                if (path.toString().endsWith(".templ") && isInput(path)) {
+                    if (Files.isRegularFile(path) && filter.test(path.toFile())) {
+                        affected.put(absolute(path), path.toFile());
+                    }
+                    else {
+                        removeTemplate(absolute(path));
+                    }
+                }
+            }
+            for (Map.Entry<Path, Set<String>> e : dependencies.entrySet()) {
+                if (all || e.getValue().stream().anyMatch(d -> Dependencies.affects(d, changedPaths, changedModules))) {
+                    affected.putIfAbsent(e.getKey(), templates.get(e.getKey()));
+                }
+            }
+            JSONObject currentScope = scope;
+            JsonProcessor.setCopyCache(true);
+            try {
+                errors.addAll(processFiles(pool, new ArrayList<>(affected.values()), ".templ", (file, result) ->
+                        compileTemplate(file, result, currentScope, modules, out, indent, null, true), result -> {
+                    writeResult(result);
+                    updateTemplate(result);
+                }, this::updateTemplate));
+            } finally {
+                JsonProcessor.setCopyCache(false);
+            }
+
+            List<File> functions = changed.stream()
+                    .filter(p -> p.toString().endsWith(".mcfunction") && isInput(p) && Files.isRegularFile(p))
+                    .map(Path::toFile)
+                    .filter(filter)
+                    .collect(Collectors.toList());
+            errors.addAll(processFiles(pool, functions, ".mcfunction", (file, result) ->
+                    templateFunction(file, result, currentScope), Main::writeResult));
+            if (!errors.isEmpty()) {
+                System.err.println(errors.size() + " file(s) failed");
+            }
+            System.out.println("Compiled " + affected.size() + " template(s), watching for changes...");
+            System.out.flush();
+        }
+
+        /**
+         * Returns whether a change of the path can affect any outputs. Watched directories can contain other files, like
+         * the outputs or logs.
+         */
+        private boolean isRelevant(Path path) {
+            Path p = absolute(path);
+            if (written.contains(p)) {
+                return false;
+            }
+            if (isInput(p) || isScope(p)) {
+                return true;
+            }
+            Set<Path> changed = Collections.singleton(p);
+            return dependencies.values().stream()
+                    .flatMap(Set::stream)
+                    .anyMatch(d -> Dependencies.affects(d, changed, Collections.emptySet()));
+        }
+
+        private boolean isScope(Path path) {
+            Path p = absolute(path);
+            return scopeFiles.stream().map(f -> absolute(f.toPath())).anyMatch(p::startsWith);
+        }
+
+        private boolean isInput(Path path) {
+            Path p = absolute(path);
+            return inputs.stream().map(f -> absolute(f.toPath())).anyMatch(p::startsWith);
+        }
+
+        private void registerDependencies() {
+            for (Set<String> set : dependencies.values()) {
+                for (String dependency : set) {
+                    if (dependency.startsWith(Dependencies.FILE)) {
+                        register(parent(Paths.get(dependency.substring(Dependencies.FILE.length()))));
+                    }
+                    else if (dependency.startsWith(Dependencies.DIRECTORY)) {
+                        Path dir = Paths.get(dependency.substring(Dependencies.DIRECTORY.length()));
+                        // Watching the parent too notices when the directory itself is created or removed
+                        register(dir);
+                        register(parent(dir));
+                    }
+                    else if (dependency.startsWith(Dependencies.TREE)) {
+                        registerTree(Paths.get(dependency.substring(Dependencies.TREE.length())));
+                    }
+                }
+            }
+        }
+
+        private void registerTree(Path dir) {
+            if (!Files.isDirectory(dir)) {
+                return;
+            }
+            try (Stream<Path> paths = Files.walk(dir)) {
+                paths.filter(Files::isDirectory).forEach(this::register);
+            } catch (IOException | UncheckedIOException e) {
+                System.err.println("Failed to watch " + dir + ": " + e.getMessage());
+            }
+        }
+
+        private void register(Path dir) {
+            if (!Files.isDirectory(dir) || !registered.add(absolute(dir))) {
+                return;
+            }
+            try {
+                keys.put(dir.register(service, StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY), dir);
+            } catch (IOException e) {
+                registered.remove(absolute(dir));
+                System.err.println("Failed to watch " + dir + ": " + e.getMessage());
+            }
+        }
+
+        private static Path parent(Path path) {
+            Path parent = path.getParent();
+            return parent != null ? parent : Paths.get(".");
+        }
+
+        private static Path absolute(Path path) {
+            return path.toAbsolutePath().normalize();
+        }
+    }
+
     private static void printUsage() {
         System.out.println("Usage:");
         System.out.println("\teval <options> [expression] - evaluates expression, or if none provided, starts a simple REPL");
@@ -227,6 +789,11 @@ public class Main {
         System.out.println("\t--include <pattern> - include files matching pattern");
         System.out.println("\t--remove-src - remove source files after processing");
         System.out.println("\t--minify - minify output");
+        System.out.println("\t--vanilla-packs <dir> - directory with behavior_packs and resource_packs of vanilla packs, defaults to the Minecraft installation");
+        System.out.println("\t--jobs <n> - number of files processed in parallel, defaults to the number of cores");
+        System.out.println("\t--watch - keep running and compile templates again, when files they depend on change");
+        System.out.println("\t--cache <dir> - directory for the build manifest and the asset index, that are kept between builds, should be outside of the output directory");
+        System.out.println("\t--incremental - only compile templates, whose inputs changed since the last build with the same cache directory, requires --out and --cache");
         System.out.flush();
     }
 
@@ -0,0 +1,296 @@
+package com.glowfischdesignstudio.jsonte;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * State shared by a single rendering of a template, like the deadline and expressions and strings compiled ahead of
+ * time.
+ * <p>
+ * A context is used by one thread at a time. Parts of a rendering, that run in parallel, use contexts created with
+ * {@link #fork()}, which read the values cached by their parents, but cache new values on their own.
+ */
+class RenderContext {
+    // Walking a few keys is cheaper than looking up their index
+    private static final int MIN_INDEXED_KEYS = 8;
+    private static final int MAX_KEY_INDEXES = 64;
+    private final long deadline;
+    private final Map<String, CompiledExpression> expressions;
+    private final Map<String, StringTemplate> strings;
+    private final RenderContext parent;
+    private final Map<String, CompiledExpression> resolvedExpressions = new HashMap<>();
+    private final Map<String, StringTemplate> resolvedStrings = new HashMap<>();
+    // Nodes of the template are cached by identity, so they must not be modified during the rendering
+    private final Map<Object, Boolean> staticNodes = new IdentityHashMap<>();
+    private final Map<Object, StaticNode> renderedNodes = new IdentityHashMap<>();
+    private final Map<Object, Object[]> keyIndexes = new IdentityHashMap<>();
+
+    RenderContext(long deadline, Map<String, CompiledExpression> expressions, Map<String, StringTemplate> strings) {
+        this.deadline = deadline;
+        this.expressions = expressions;
+        this.strings = strings;
+        this.parent = null;
+    }
+
+    private RenderContext(RenderContext parent, long deadline) {
+        this.deadline = deadline;
+        this.expressions = parent.expressions;
+        this.strings = parent.strings;
+        this.parent = parent;
+    }
+
+    /**
+     * Creates a context for a part of the rendering, that runs on another thread. This context must not be used while
+     * the forked contexts are in use.
+     *
+     * @return The forked context
+     */
+    RenderContext fork() {
+        return new RenderContext(this, deadline);
+    }
+
+    /**
+     * Creates a context for rendering a part compiled ahead of time, like the template of a module. The created
+     * context has the deadline of this one, but reads the values cached by the compiled context instead.
+     *
+     * @param compiled The context prepared with {@link #prepare(JSONObject)}.
+     * @return The context
+     */
+    RenderContext withCompiled(RenderContext compiled) {
+        return new RenderContext(compiled, deadline);
+    }
+
+    /**
+     * Finds out which parts of the element are static and renders them. The element is visited as an object even if
+     * it's static, so its children are rendered on their own. Once prepared, the context must not be used for
+     * rendering, so contexts created with {@link #withCompiled(RenderContext)} can read it from multiple threads.
+     */
+    void prepare(JSONObject element) {
+        isStatic(element);
+        for (String key : element.keySet()) {
+            markChild(element.opt(key));
+        }
+        for (Map.Entry<Object, Boolean> e : staticNodes.entrySet()) {
+            if (e.getValue() && e.getKey() != element) {
+                renderStatic(e.getKey());
+            }
+        }
+    }
+
+    /**
+     * Creates a context for rendering a template, that wasn't compiled ahead of time.
+     *
+     * @param timeout Timeout for the processing in milliseconds. Zero or less means no timeout.
+     * @return The context
+     */
+    static RenderContext withTimeout(long timeout) {
+        return new RenderContext(toDeadline(timeout), Collections.emptyMap(), Collections.emptyMap());
+    }
+
+    static long toDeadline(long timeout) {
+        if (timeout <= 0) {
+            return Long.MAX_VALUE;
+        }
+        return System.currentTimeMillis() + timeout;
+    }
+
+    /**
+     * Returns the remaining time until the deadline in milliseconds or zero, if there is no deadline.
+     */
+    long getRemainingTime() {
+        if (deadline == Long.MAX_VALUE) {
+            return 0;
+        }
+        // Never return zero or less for a passed deadline, because it would mean no timeout
+        return Math.max(1, deadline - System.currentTimeMillis());
+    }
+
+    void checkDeadline() {
+        if (System.currentTimeMillis() > deadline) {
+            throw new RuntimeException("JSON generation time has been limited.");
+        }
+    }
+
+    CompiledExpression getExpression(String src, String path) {
+        CompiledExpression expression = expressions.get(src);
+        if (expression == null) {
+            expression = lookup(src, c -> c.resolvedExpressions);
+        }
+        if (expression == null) {
+            // Remembered for this rendering, so threads don't compete for the lock of the global cache
+            expression = JsonProcessor.compileExpression(src, path);
+            resolvedExpressions.put(src, expression);
+        }
+        return expression;
+    }
+
+    /**
+     * Returns a string of the template split into literal text and expressions. Most strings don't have any
+     * expressions, so callers check for <code>{{</code> before splitting a string.
+     */
+    StringTemplate getString(String src) {
+        StringTemplate string = strings.get(src);
+        if (string == null) {
+            string = lookup(src, c -> c.resolvedStrings);
+        }
+        if (string == null) {
+            string = StringTemplate.parse(src);
+            resolvedStrings.put(src, string);
+        }
+        return string;
+    }
+
+    /**
+     * Reads a cached value from this context or its parents, so forks of a context created with
+     * {@link #withCompiled(RenderContext)} read the compiled context too.
+     */
+    private <K, V> V lookup(K key, Function<RenderContext, Map<K, V>> map) {
+        V value = null;
+        for (RenderContext c = this; value == null && c != null; c = c.parent) {
+            value = map.apply(c).get(key);
+        }
+        return value;
+    }
+
+    /**
+     * Returns whether the element is an object or an array without any templates or comments in it.
+     */
+    boolean isStatic(Object element) {
+        if (!(element instanceof JSONObject) && !(element instanceof JSONArray)) {
+            return false;
+        }
+        Boolean result = lookup(element, c -> c.staticNodes);
+        if (result == null) {
+            result = markStatic(element);
+            staticNodes.put(element, result);
+        }
+        return result;
+    }
+
+    /**
+     * Finds out whether the element and each object and array in it is static in a single pass. Static elements
+     * inside of other static elements are rendered together with them, so only dynamic elements and their children
+     * are remembered.
+     */
+    private boolean markStatic(Object element) {
+        boolean result = true;
+        if (element instanceof JSONObject) {
+            JSONObject obj = (JSONObject) element;
+            for (String key : obj.keySet()) {
+                boolean value = markStaticValue(obj.opt(key));
+                result &= value && !key.contains("{{") && !key.startsWith("$comment");
+            }
+            if (!result) {
+                for (String key : obj.keySet()) {
+                    markChild(obj.opt(key));
+                }
+            }
+        }
+        else {
+            JSONArray arr = (JSONArray) element;
+            for (int i = 0; i < arr.length(); i++) {
+                result &= markStaticValue(arr.opt(i));
+            }
+            if (!result) {
+                for (int i = 0; i < arr.length(); i++) {
+                    markChild(arr.opt(i));
+                }
+            }
+        }
+        if (!result) {
+            staticNodes.put(element, false);
+        }
+        return result;
+    }
+
+    private boolean markStaticValue(Object value) {
+        if (value instanceof JSONObject || value instanceof JSONArray) {
+            return markStatic(value);
+        }
+        return !(value instanceof String) || !((String) value).contains("{{");
+    }
+
+    private void markChild(Object child) {
+        // Dynamic children have been remembered already
+        if (child instanceof JSONObject || child instanceof JSONArray) {
+            staticNodes.putIfAbsent(child, true);
+        }
+    }
+
+    static boolean isStaticValue(Object element) {
+        if (element instanceof JSONObject) {
+            JSONObject obj = (JSONObject) element;
+            for (String key : obj.keySet()) {
+                if (key.contains("{{") || key.startsWith("$comment") || !isStaticValue(obj.opt(key))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        else if (element instanceof JSONArray) {
+            JSONArray arr = (JSONArray) element;
+            for (int i = 0; i < arr.length(); i++) {
+                if (!isStaticValue(arr.opt(i))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return !(element instanceof String) || !((String) element).contains("{{");
+    }
+
+    /**
+     * Renders a static element, see {@link #isStatic(Object)}.
+     */
+    StaticNode renderStatic(Object element) {
+        StaticNode result = lookup(element, c -> c.renderedNodes);
+        if (result == null) {
+            result = StaticNode.render(element);
+            renderedNodes.put(element, result);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the key of an object or a map at the index. Keys of larger objects are indexed, so looping over them by
+     * position doesn't walk the keys for every element. The index is only kept for this rendering and for a limited
+     * number of objects, and it's rebuilt if the number of keys changes or the key at the index has been removed.
+     * Values of the scope aren't modified during a rendering, so their keys can't be reordered otherwise.
+     *
+     * @param object The object or the map.
+     * @param keys   Keys of the object.
+     * @param index  Position of the key, within the bounds of the keys.
+     * @return The key at the position
+     */
+    @SuppressWarnings("unchecked")
+    <T> T getKey(Object object, Set<T> keys, int index) {
+        if (keys.size() <= MIN_INDEXED_KEYS) {
+            return walkKeys(keys, index);
+        }
+        Object[] keyIndex = keyIndexes.get(object);
+        if (keyIndex == null || keyIndex.length != keys.size() || !keys.contains(keyIndex[index])) {
+            if (keyIndex == null && keyIndexes.size() >= MAX_KEY_INDEXES) {
+                keyIndexes.clear();
+            }
+            keyIndex = keys.toArray();
+            keyIndexes.put(object, keyIndex);
+        }
+        return (T) keyIndex[index];
+    }
+
+    static <T> T walkKeys(Set<T> keys, int index) {
+        Iterator<T> it = keys.iterator();
+        for (int i = 0; i < index; i++) {
+            it.next();
+        }
+        return it.next();
+    }
+}
@@ -0,0 +1,67 @@
+package com.glowfischdesignstudio.jsonte;
+
+import org.json.JSONObject;
+
+/**
+ * A frame of the extra scope, like the variables of a single iteration. Frames are chained, so entering an iteration
+ * doesn't copy the variables of the outer ones. Names of a frame shadow the names of its parents.
+ */
+final class ScopeFrame {
+    static final ScopeFrame EMPTY = new ScopeFrame(null, new String[0], new Object[0], null);
+
+    private final ScopeFrame parent;
+    private final String[] names;
+    private final Object[] values;
+    private final JSONObject object;
+
+    private ScopeFrame(ScopeFrame parent, String[] names, Object[] values, JSONObject object) {
+        this.parent = parent;
+        this.names = names;
+        this.values = values;
+        this.object = object;
+    }
+
+    /**
+     * Creates a frame with the values of an object.
+     */
+    static ScopeFrame of(JSONObject object) {
+        if (object == null || object.length() == 0) {
+            return EMPTY;
+        }
+        return new ScopeFrame(null, null, null, object);
+    }
+
+    /**
+     * Creates a frame for an element of an iteration. The element shadows the index, when both have the same name.
+     *
+     * @param name  Name of the element.
+     * @param value The element.
+     * @param index Index of the element.
+     * @return The frame
+     */
+    ScopeFrame iteration(String name, Object value, int index) {
+        return new ScopeFrame(this, new String[]{name, "index"}, new Object[]{value, index}, null);
+    }
+
+    /**
+     * Returns the value of the name in the closest frame, that has it.
+     *
+     * @return The value or null, if no frame has the name
+     */
+    Object get(String name) {
+        for (ScopeFrame frame = this; frame != null; frame = frame.parent) {
+            if (frame.object != null) {
+                if (frame.object.has(name)) {
+                    return frame.object.get(name);
+                }
+                continue;
+            }
+            for (int i = 0; i < frame.names.length; i++) {
+                if (frame.values[i] != null && frame.names[i].equals(name)) {
+                    return frame.values[i];
+                }
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,143 @@
+package com.glowfischdesignstudio.jsonte;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * A rendered part of a template without any expressions. Rendering such a part only converts numbers and nulls the
+ * same way as visiting every value would, so it's done in a single pass over the part, without resolving anything or
+ * serializing it.
+ * <p>
+ * The rendered value is the part itself, when rendering doesn't change anything in it.
+ */
+final class StaticNode {
+    private final Object rendered;
+    private final boolean unchanged;
+    private final boolean unchangedInJson;
+
+    private StaticNode(Object rendered, boolean unchanged, boolean unchangedInJson) {
+        this.rendered = rendered;
+        this.unchanged = unchanged;
+        this.unchangedInJson = unchangedInJson;
+    }
+
+    /**
+     * Renders a part of a template, that has no expressions and no comments.
+     *
+     * @param node The object, array or value.
+     * @return The rendered part
+     */
+    static StaticNode render(Object node) {
+        if (node instanceof JSONObject) {
+            return renderObject((JSONObject) node);
+        }
+        else if (node instanceof JSONArray) {
+            return renderArray((JSONArray) node);
+        }
+        return renderValue(node);
+    }
+
+    /**
+     * Fields, that rendering changes, are moved after the unchanged ones, like when visiting the object.
+     */
+    private static StaticNode renderObject(JSONObject obj) {
+        StaticNode[] changed = null;
+        boolean sameOrder = true;
+        boolean sameJson = true;
+        int i = 0;
+        for (String key : obj.keySet()) {
+            StaticNode child = render(obj.opt(key));
+            if (child.unchanged) {
+                // An unchanged field after a changed one is moved in front of it
+                sameOrder &= changed == null;
+            }
+            else {
+                if (changed == null) {
+                    changed = new StaticNode[obj.length()];
+                }
+                changed[i] = child;
+                sameJson &= child.unchangedInJson;
+            }
+            i++;
+        }
+        if (changed == null) {
+            return new StaticNode(obj, true, true);
+        }
+        JSONObject result = new JSONObject();
+        i = 0;
+        for (String key : obj.keySet()) {
+            if (changed[i++] == null) {
+                result.put(key, obj.opt(key));
+            }
+        }
+        i = 0;
+        for (String key : obj.keySet()) {
+            if (changed[i] != null) {
+                result.put(key, changed[i].rendered);
+            }
+            i++;
+        }
+        boolean same = sameOrder && sameJson;
+        return new StaticNode(result, same, same);
+    }
+
+    private static StaticNode renderArray(JSONArray arr) {
+        Object[] elements = null;
+        boolean sameJson = true;
+        for (int i = 0; i < arr.length(); i++) {
+            Object element = arr.opt(i);
+            StaticNode child = render(element);
+            sameJson &= child.unchangedInJson;
+            if (child.rendered != element && elements == null) {
+                elements = new Object[arr.length()];
+                for (int j = 0; j < i; j++) {
+                    elements[j] = arr.opt(j);
+                }
+            }
+            if (elements != null) {
+                elements[i] = child.rendered;
+            }
+        }
+        if (elements == null) {
+            return new StaticNode(arr, true, true);
+        }
+        JSONArray result = new JSONArray();
+        for (Object element : elements) {
+            result.put(element);
+        }
+        return new StaticNode(result, sameJson, sameJson);
+    }
+
+    private static StaticNode renderValue(Object value) {
+        Object rendered;
+        if (value instanceof String || value instanceof Boolean) {
+            rendered = value;
+        }
+        else if (value instanceof Number) {
+            // Visiting a number turns it into a float, even a long one
+            rendered = Float.parseFloat(String.valueOf(value));
+            if (rendered.equals(value)) {
+                rendered = value;
+            }
+        }
+        else {
+            rendered = String.valueOf(value);
+        }
+        if (rendered == value) {
+            return new StaticNode(value, true, true);
+        }
+        return new StaticNode(rendered, value.toString().equals(rendered.toString()),
+                JSONObject.valueToString(value).equals(JSONObject.valueToString(rendered)));
+    }
+
+    Object getRendered() {
+        return rendered;
+    }
+
+    /**
+     * Returns whether the rendered value has the same string form as the part of the template.
+     */
+    boolean isUnchanged() {
+        return unchanged;
+    }
+}
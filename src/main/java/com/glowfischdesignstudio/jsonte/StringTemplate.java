@@ -0,0 +1,141 @@
+package com.glowfischdesignstudio.jsonte;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A string of a template split into literal text and <code>{{...}}</code> expressions. Strings are split once and
+ * the segments are reused every time the string is rendered.
+ * <p>
+ * An expression starts with <code>{{</code>, ends with <code>}}</code> and contains at least one character. Braces
+ * inside of it must be escaped with a backslash. The scanner finds the same expressions as the
+ * <code>\{\{(?:\\.|[^{}])+}}</code> pattern.
+ */
+final class StringTemplate {
+    private static final String[] NO_EXPRESSIONS = new String[0];
+
+    private final String source;
+    private final String[] literals;
+    private final String[] expressions;
+    private final boolean action;
+
+    private StringTemplate(String source, String[] literals, String[] expressions, boolean action) {
+        this.source = source;
+        this.literals = literals;
+        this.expressions = expressions;
+        this.action = action;
+    }
+
+    static StringTemplate parse(String s) {
+        int start = s.indexOf("{{");
+        if (start == -1) {
+            return new StringTemplate(s, null, NO_EXPRESSIONS, false);
+        }
+        int n = s.length();
+        // ends[i] is where the first match ends, when the expression continues at i, or -1
+        // full[i] is whether the expression can continue at i and end with the string
+        int[] ends = new int[n + 1];
+        boolean[] full = new boolean[n + 1];
+        ends[n] = -1;
+        for (int i = n - 1; i >= 0; i--) {
+            char c = s.charAt(i);
+            int end = -1;
+            boolean toEnd = false;
+            if (c == '\\' && i + 1 < n && !isLineTerminator(s.charAt(i + 1))) {
+                end = ends[i + 2];
+                toEnd = full[i + 2];
+            }
+            if (c != '{' && c != '}') {
+                if (end == -1) {
+                    end = ends[i + 1];
+                }
+                toEnd |= full[i + 1];
+            }
+            if (c == '}' && i + 1 < n && s.charAt(i + 1) == '}') {
+                if (end == -1) {
+                    end = i + 2;
+                }
+                toEnd |= i + 2 == n;
+            }
+            ends[i] = end;
+            full[i] = toEnd;
+        }
+        List<String> literals = new ArrayList<>();
+        List<String> expressions = new ArrayList<>();
+        int last = 0;
+        while (start != -1) {
+            int end = firstEnd(s, start, ends);
+            if (end == -1) {
+                start = s.indexOf("{{", start + 1);
+                continue;
+            }
+            literals.add(s.substring(last, start));
+            expressions.add(s.substring(start, end));
+            last = end;
+            start = s.indexOf("{{", end);
+        }
+        literals.add(s.substring(last));
+        boolean action = s.startsWith("{{") && n > 2 && first(s, 2, full);
+        return new StringTemplate(s, literals.toArray(new String[0]), expressions.toArray(NO_EXPRESSIONS), action);
+    }
+
+    /**
+     * Returns where the expression starting at the index ends. The first character after the opening braces is
+     * required, so the expression can't end right there.
+     */
+    private static int firstEnd(String s, int start, int[] ends) {
+        int i = start + 2;
+        if (i >= s.length()) {
+            return -1;
+        }
+        char c = s.charAt(i);
+        int end = -1;
+        if (c == '\\' && i + 1 < s.length() && !isLineTerminator(s.charAt(i + 1))) {
+            end = ends[i + 2];
+        }
+        if (end == -1 && c != '{' && c != '}') {
+            end = ends[i + 1];
+        }
+        return end;
+    }
+
+    private static boolean first(String s, int i, boolean[] full) {
+        char c = s.charAt(i);
+        return (c == '\\' && i + 1 < s.length() && !isLineTerminator(s.charAt(i + 1)) && full[i + 2]) ||
+                (c != '{' && c != '}' && full[i + 1]);
+    }
+
+    private static boolean isLineTerminator(char c) {
+        return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+    }
+
+    /**
+     * Returns whether the string doesn't contain any expressions.
+     */
+    boolean isStatic() {
+        return expressions.length == 0;
+    }
+
+    /**
+     * Returns whether the whole string is a single expression, like an action in a key.
+     */
+    boolean isAction() {
+        return action;
+    }
+
+    int getExpressionCount() {
+        return expressions.length;
+    }
+
+    String getExpression(int i) {
+        return expressions[i];
+    }
+
+    /**
+     * Returns the literal text before the expression with the index. The text after the last expression has the
+     * index equal to the number of expressions.
+     */
+    String getLiteral(int i) {
+        return literals == null ? source : literals[i];
+    }
+}
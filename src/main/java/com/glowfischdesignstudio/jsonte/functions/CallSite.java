@@ -0,0 +1,112 @@
+package com.glowfischdesignstudio.jsonte.functions;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Inline cache of a single function call in an expression. It remembers the overloads chosen for the classes of the
+ * parameters, so calls with the same classes skip checking every variant of the function.
+ * <p>
+ * A call site caches up to {@value #MAX_ENTRIES} combinations of parameter classes. Call sites seeing more than that
+ * resolve the rest of the calls every time. It's safe to use the same call site from multiple threads.
+ */
+public final class CallSite {
+    private static final int MAX_ENTRIES = 4;
+    private static final Entry[] EMPTY = new Entry[0];
+    private static final LongAdder HITS = new LongAdder();
+    private static final LongAdder MISSES = new LongAdder();
+
+    private volatile Entry[] entries = EMPTY;
+
+    /**
+     * Calls the function like {@link FunctionDefinition#execute(Object[], String)}.
+     */
+    public Object execute(FunctionDefinition function, Object[] params, String path) {
+        int[][] overloads = function.getOverloads();
+        for (Entry entry : entries) {
+            if (entry.function == function && entry.overloads == overloads && entry.matches(params)) {
+                HITS.increment();
+                return function.invoke(entry.overload, params, path);
+            }
+        }
+        MISSES.increment();
+        int overload = function.resolve(params, path);
+        Entry[] current = entries;
+        if (current.length < MAX_ENTRIES) {
+            Entry[] updated = Arrays.copyOf(current, current.length + 1);
+            // Classes are taken before the call, because it replaces nulls in the parameters
+            updated[current.length] = new Entry(function, overloads, classesOf(params), overload);
+            entries = updated;
+        }
+        return function.invoke(overload, params, path);
+    }
+
+    private static Class<?>[] classesOf(Object[] params) {
+        Class<?>[] classes = new Class<?>[params.length];
+        for (int i = 0; i < params.length; i++) {
+            classes[i] = params[i] == null ? null : params[i].getClass();
+        }
+        return classes;
+    }
+
+    /**
+     * Returns how many calls used an overload cached by their call site.
+     *
+     * @return The number of cache hits
+     */
+    public static long getHits() {
+        return HITS.sum();
+    }
+
+    /**
+     * Returns how many calls had to resolve the overload.
+     *
+     * @return The number of cache misses
+     */
+    public static long getMisses() {
+        return MISSES.sum();
+    }
+
+    /**
+     * Returns the share of calls, that used a cached overload.
+     *
+     * @return The hit rate between 0 and 1
+     */
+    public static double getHitRate() {
+        long hits = getHits();
+        long total = hits + getMisses();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    public static void resetStatistics() {
+        HITS.reset();
+        MISSES.reset();
+    }
+
+    private static final class Entry {
+        private final FunctionDefinition function;
+        private final int[][] overloads;
+        private final Class<?>[] classes;
+        private final int overload;
+
+        private Entry(FunctionDefinition function, int[][] overloads, Class<?>[] classes, int overload) {
+            this.function = function;
+            this.overloads = overloads;
+            this.classes = classes;
+            this.overload = overload;
+        }
+
+        private boolean matches(Object[] params) {
+            if (params.length != classes.length) {
+                return false;
+            }
+            for (int i = 0; i < params.length; i++) {
+                Object param = params[i];
+                if ((param == null ? null : param.getClass()) != classes[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -1,6 +1,5 @@
 package com.glowfischdesignstudio.jsonte.functions;
 
-import com.glowfischdesignstudio.jsonte.utils.Pair;
 import com.glowfischdesignstudio.jsonte.exception.JsonTemplatingException;
 import org.json.JSONArray;
 import org.json.JSONObject;
@@ -8,7 +7,6 @@ import org.json.JSONObject;
 import java.util.*;
 import java.util.function.Function;
 import java.util.stream.Collectors;
-import java.util.stream.IntStream;
 
 public class FunctionDefinition {
 
@@ -30,6 +28,8 @@ public class FunctionDefinition {
     private final List<Class<?>[]> types = new ArrayList<>();
     private final List<Function<Object[], Object>> implementations = new ArrayList<>();
     private final String name;
+    // Indexes of the implementations by the number of parameters, in the order they were added
+    private volatile int[][] overloads = new int[0][];
     private boolean unsafe = false;
 
     public FunctionDefinition(String name) {
@@ -41,40 +41,56 @@ public class FunctionDefinition {
     }
 
     public Object execute(Object[] params, String path) {
-        List<Pair<Integer, Class<?>[]>> sizeMatching = IntStream.range(0, types.size())
-                .filter(value -> params.length == types.get(value).length)
-                .mapToObj(value -> new Pair<>(value, types.get(value)))
-                .collect(Collectors.toList());
-        if (sizeMatching.size() == 0) {
+        return invoke(resolve(params, path), params, path);
+    }
+
+    /**
+     * Finds the overload for given parameters. The result only depends on the classes of the parameters and on the
+     * table returned by {@link #getOverloads()}.
+     *
+     * @return Index of the overload
+     */
+    int resolve(Object[] params, String path) {
+        int[][] table = overloads;
+        int[] candidates = params.length < table.length ? table[params.length] : null;
+        if (candidates == null) {
             throw new JsonTemplatingException(String.format("Incorrect number of parameters passed to function '%s'!", name), path);
         }
-        List<Pair<Integer, Class<?>[]>> matching =
-                sizeMatching.stream()
-                        .filter(classes -> paramCheck(params, classes.getValue()))
-                        .collect(Collectors.toList());
-        if (matching.size() == 0) {
-            throw new JsonTemplatingException(String.format("Function '%s' got unexpected params. Expected %s, but got %s", name, sizeMatching
-                    .stream()
-                    .map(integerPair -> toString(integerPair.getValue()))
+        int match = -1;
+        for (int index : candidates) {
+            if (paramCheck(params, types.get(index))) {
+                if (match != -1) {
+                    throw new JsonTemplatingException(String.format("Ambiguous function call to '%s'. Following variants matched: %s", name, Arrays
+                            .stream(candidates)
+                            .filter(i -> paramCheck(params, types.get(i)))
+                            .mapToObj(i -> toString(types.get(i)))
+                            .collect(Collectors.joining(", "))), path);
+                }
+                match = index;
+            }
+        }
+        if (match == -1) {
+            throw new JsonTemplatingException(String.format("Function '%s' got unexpected params. Expected %s, but got %s", name, Arrays
+                    .stream(candidates)
+                    .mapToObj(i -> toString(types.get(i)))
                     .collect(Collectors.joining(", ")),
                     toString(params)), path);
         }
-        else if (matching.size() == 1) {
-            Pair<Integer, Class<?>[]> pair = matching.get(0);
-            for (int i = 0, paramsLength = params.length; i < paramsLength; i++) {
-                params[i] = getEmptyIfNull(pair.getValue()[i], params[i]);
-            }
-            try {
-                return implementations.get(pair.getKey()).apply(params);
-            } catch (JsonTemplatingException ex) {
-                throw ex.withPath(path);
-            }
+        return match;
+    }
+
+    /**
+     * Calls an overload returned by {@link #resolve(Object[], String)}.
+     */
+    Object invoke(int overload, Object[] params, String path) {
+        Class<?>[] matchTypes = types.get(overload);
+        for (int i = 0, paramsLength = params.length; i < paramsLength; i++) {
+            params[i] = getEmptyIfNull(matchTypes[i], params[i]);
         }
-        else {
-            throw new JsonTemplatingException(String.format("Ambiguous function call to '%s'. Following variants matched: %s", name, matching
-                    .stream()
-                    .map(integerPair -> toString(integerPair.getValue()))
-                    .collect(Collectors.joining(", "))), path);
+        try {
+            return implementations.get(overload).apply(params);
+        } catch (JsonTemplatingException ex) {
+            throw ex.withPath(path);
         }
     }
 
@@ -142,9 +158,28 @@ public class FunctionDefinition {
         return true;
     }
 
-    public void addImplementation(Function<Object[], Object> implementation, Class<?>... types) {
+    /**
+     * Returns the table of overloads by the number of parameters. A new table is created, when an implementation is
+     * added, so resolved overloads are valid as long as the table is the same.
+     */
+    int[][] getOverloads() {
+        return overloads;
+    }
+
+    public synchronized void addImplementation(Function<Object[], Object> implementation, Class<?>... types) {
         implementations.add(implementation);
         this.types.add(types);
+        int[][] table = Arrays.copyOf(overloads, Math.max(overloads.length, types.length + 1));
+        int[] candidates = table[types.length];
+        if (candidates == null) {
+            table[types.length] = new int[]{this.types.size() - 1};
+        }
+        else {
+            candidates = Arrays.copyOf(candidates, candidates.length + 1);
+            candidates[candidates.length - 1] = this.types.size() - 1;
+            table[types.length] = candidates;
+        }
+        overloads = table;
     }
 
     public boolean isUnsafe() {
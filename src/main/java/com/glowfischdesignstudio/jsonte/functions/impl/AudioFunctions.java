@@ -1,8 +1,10 @@
 package com.glowfischdesignstudio.jsonte.functions.impl;
 
+import com.glowfischdesignstudio.jsonte.Dependencies;
 import com.glowfischdesignstudio.jsonte.JsonProcessor;
 import com.glowfischdesignstudio.jsonte.exception.JsonTemplatingException;
 import com.glowfischdesignstudio.jsonte.functions.JSONFunction;
+import com.glowfischdesignstudio.jsonte.utils.AssetIndex;
 import com.glowfischdesignstudio.jsonte.utils.AudioUtils;
 
 import java.io.File;
@@ -31,7 +33,15 @@ public class AudioFunctions {
     @JSONFunction
     private static Double audioDuration(String path) {
         try {
-            return AudioUtils.getAudioInfo(JsonProcessor.FILE_LOADER.apply(path)).duration;
+            AssetIndex index = JsonProcessor.ASSET_INDEX;
+            if (index != null) {
+                Dependencies.recordFile(path);
+                Double duration = index.getAudioDuration(path);
+                if (duration != null) {
+                    return duration;
+                }
+            }
+            return AudioUtils.getAudioInfo(JsonProcessor.loadFile(path)).duration;
         } catch (IOException e) {
             throw new JsonTemplatingException("Failed to read the file", e);
         }
@@ -1,9 +1,12 @@
 package com.glowfischdesignstudio.jsonte.functions.impl;
 
+import com.glowfischdesignstudio.jsonte.Dependencies;
 import com.glowfischdesignstudio.jsonte.JsonProcessor;
 import com.glowfischdesignstudio.jsonte.exception.JsonTemplatingException;
 import com.glowfischdesignstudio.jsonte.functions.JSONFunction;
 import com.glowfischdesignstudio.jsonte.functions.JSONUnsafe;
+import com.glowfischdesignstudio.jsonte.utils.FileSnapshot;
+import com.glowfischdesignstudio.jsonte.utils.LruCache;
 import com.stirante.justpipe.Pipe;
 import org.apache.commons.io.FilenameUtils;
 import org.json.JSONArray;
@@ -13,7 +16,9 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.Arrays;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 /**
@@ -21,9 +26,17 @@ import java.util.stream.Collectors;
  */
 public class FileFunctions {
 
+    private static final LruCache<Path, LoadedJson> LOAD_CACHE =
+            new LruCache<>(Integer.getInteger("jsonte.loadCacheSize", 64));
+
     @JSONFunction
     @JSONUnsafe
     private static JSONArray fileList(String path) {
+        Dependencies.recordDirectory(path);
+        FileSnapshot snapshot = JsonProcessor.FILE_SNAPSHOT;
+        if (snapshot != null) {
+            return new JSONArray(snapshot.list(path));
+        }
         File f = new File(path);
         String[] list = f.list();
         if (list == null) {
@@ -50,6 +63,13 @@ public class FileFunctions {
     @JSONFunction
     @JSONUnsafe
     private static JSONArray fileList(String path, String filter) {
+        Dependencies.recordDirectory(path);
+        FileSnapshot snapshot = JsonProcessor.FILE_SNAPSHOT;
+        if (snapshot != null) {
+            return new JSONArray(Arrays.stream(snapshot.list(path))
+                    .filter(s -> snapshot.matches(s, filter))
+                    .collect(Collectors.toList()));
+        }
         File f = new File(path);
         String[] list = f.list();
         if (list == null) {
@@ -63,8 +83,13 @@ public class FileFunctions {
     @JSONFunction
     @JSONUnsafe
     private static JSONArray fileListRecurse(String path) {
+        Dependencies.recordTree(path);
         File f = new File(path);
         try {
+            FileSnapshot snapshot = JsonProcessor.FILE_SNAPSHOT;
+            if (snapshot != null) {
+                return new JSONArray(snapshot.walk(path));
+            }
             return new JSONArray(Files.walk(f.toPath())
                     .filter(p -> !p.toFile().isDirectory())
                     .map(p -> f.toPath().relativize(p))
@@ -94,8 +119,15 @@ public class FileFunctions {
     @JSONFunction
     @JSONUnsafe
     private static JSONArray fileListRecurse(String path, String filter) {
+        Dependencies.recordTree(path);
         File f = new File(path);
         try {
+            FileSnapshot snapshot = JsonProcessor.FILE_SNAPSHOT;
+            if (snapshot != null) {
+                return new JSONArray(Arrays.stream(snapshot.walk(path))
+                        .filter(s -> snapshot.matches(s, filter))
+                        .collect(Collectors.toList()));
+            }
 
             return new JSONArray(Files.walk(f.toPath())
                     .filter(p -> !p.toFile().isDirectory())
@@ -197,11 +229,17 @@ public class FileFunctions {
     @JSONFunction
     @JSONUnsafe
     private static Boolean isDir(String path) {
+        Dependencies.recordDirectory(path);
+        FileSnapshot snapshot = JsonProcessor.FILE_SNAPSHOT;
+        if (snapshot != null) {
+            return snapshot.isDirectory(path);
+        }
         return new File(path).isDirectory();
     }
 
     /**
-     * Returns json file as an object.
+     * Returns json file as an object. The object is shared by all loads of the file until it changes, and parts of it
+     * can be shared with the result.
      * @param path path: A path to the file
      * @example
      * <code>
@@ -216,9 +254,66 @@ public class FileFunctions {
     @JSONFunction
     private static JSONObject load(String path) {
         try {
-            return new JSONObject(JsonProcessor.FILE_LOADER.apply(path).toString());
+            // Files are parsed again only when their modification time or size changes, like in CachingFileLoader
+            Path key = new File(path).toPath().toAbsolutePath().normalize();
+            BasicFileAttributes attributes = readAttributes(key);
+            Function<String, Pipe> loader = JsonProcessor.FILE_LOADER;
+            LoadedJson cached = LOAD_CACHE.getIfPresent(key);
+            if (attributes != null && cached != null && cached.matches(loader, attributes)) {
+                Dependencies.recordFile(path);
+                return cached.json;
+            }
+            JSONObject json = new JSONObject(JsonProcessor.loadFile(path).toString());
+            if (attributes == null) {
+                return json;
+            }
+            // Rendering never modifies values of expressions, so the parsed object is shared like the global scope
+            LOAD_CACHE.put(key, new LoadedJson(loader, attributes, json));
+            return json;
         } catch (Exception e) {
             throw new JsonTemplatingException("An exception occurred while executing function 'load'", e);
         }
     }
+
+    /**
+     * Returns the attributes of a file, or null, if it can't be read from the disk.
+     */
+    private static BasicFileAttributes readAttributes(Path file) {
+        try {
+            return Files.readAttributes(file, BasicFileAttributes.class);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the cache of files parsed by the <code>load</code> function.
+     *
+     * @return The cache of parsed files
+     */
+    public static LruCache<Path, ?> getLoadCache() {
+        return LOAD_CACHE;
+    }
+
+    private static class LoadedJson {
+        private final Function<String, Pipe> loader;
+        private final long modified;
+        private final long length;
+        private final JSONObject json;
+
+        private LoadedJson(Function<String, Pipe> loader, BasicFileAttributes attributes, JSONObject json) {
+            this.loader = loader;
+            this.modified = attributes.lastModifiedTime().toMillis();
+            this.length = attributes.size();
+            this.json = json;
+        }
+
+        /**
+         * Returns whether the file was loaded by the same loader and wasn't changed since.
+         */
+        private boolean matches(Function<String, Pipe> loader, BasicFileAttributes attributes) {
+            return this.loader == loader && modified == attributes.lastModifiedTime().toMillis() &&
+                    length == attributes.size();
+        }
+    }
 }
@@ -1,7 +1,9 @@
 package com.glowfischdesignstudio.jsonte.functions.impl;
 
+import com.glowfischdesignstudio.jsonte.Dependencies;
 import com.glowfischdesignstudio.jsonte.JsonProcessor;
 import com.glowfischdesignstudio.jsonte.functions.JSONFunction;
+import com.glowfischdesignstudio.jsonte.utils.AssetIndex;
 import com.glowfischdesignstudio.jsonte.utils.Pair;
 import com.glowfischdesignstudio.jsonte.exception.JsonTemplatingException;
 import com.glowfischdesignstudio.jsonte.utils.ImageUtils;
@@ -30,12 +32,16 @@ public class ImageFunctions {
      */
     @JSONFunction
     private static Integer imageWidth(String path) {
+        Pair<Integer, Integer> indexed = getIndexedBounds(path);
+        if (indexed != null) {
+            return indexed.getKey();
+        }
         try {
-            Pair<Integer, Integer> bounds = ImageUtils.getBounds(JsonProcessor.FILE_LOADER.apply(path));
+            Pair<Integer, Integer> bounds = ImageUtils.getBounds(JsonProcessor.loadFile(path));
             return bounds.getKey();
         } catch (IllegalArgumentException | IOException e) {
             try {
-                BufferedImage read = ImageIO.read(JsonProcessor.FILE_LOADER.apply(path).getInputStream());
+                BufferedImage read = ImageIO.read(JsonProcessor.loadFile(path).getInputStream());
                 return read.getWidth();
             } catch (IOException ioException) {
                 throw new JsonTemplatingException("Failed to read the image!", ioException);
@@ -57,12 +63,16 @@ public class ImageFunctions {
      */
     @JSONFunction
     private static Integer imageHeight(String path) {
+        Pair<Integer, Integer> indexed = getIndexedBounds(path);
+        if (indexed != null) {
+            return indexed.getValue();
+        }
         try {
-            Pair<Integer, Integer> bounds = ImageUtils.getBounds(JsonProcessor.FILE_LOADER.apply(path));
+            Pair<Integer, Integer> bounds = ImageUtils.getBounds(JsonProcessor.loadFile(path));
             return bounds.getValue();
         } catch (IllegalArgumentException | IOException e) {
             try {
-                BufferedImage read = ImageIO.read(JsonProcessor.FILE_LOADER.apply(path).getInputStream());
+                BufferedImage read = ImageIO.read(JsonProcessor.loadFile(path).getInputStream());
                 return read.getHeight();
             } catch (IOException ioException) {
                 throw new JsonTemplatingException("Failed to read the image!", ioException);
@@ -70,4 +80,17 @@ public class ImageFunctions {
         }
     }
 
+    private static Pair<Integer, Integer> getIndexedBounds(String path) {
+        AssetIndex index = JsonProcessor.ASSET_INDEX;
+        if (index == null) {
+            return null;
+        }
+        Dependencies.recordFile(path);
+        try {
+            return index.getImageBounds(path);
+        } catch (IOException e) {
+            throw new JsonTemplatingException("Failed to read the image!", e);
+        }
+    }
+
 }
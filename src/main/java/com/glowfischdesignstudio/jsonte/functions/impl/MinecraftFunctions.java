@@ -3,6 +3,7 @@ package com.glowfischdesignstudio.jsonte.functions.impl;
 import com.glowfischdesignstudio.jsonte.exception.JsonTemplatingException;
 import com.glowfischdesignstudio.jsonte.functions.JSONFunction;
 import com.glowfischdesignstudio.jsonte.functions.JSONUnsafe;
+import com.glowfischdesignstudio.jsonte.utils.PackIndex;
 import com.glowfischdesignstudio.jsonte.utils.PipeExtensions;
 import com.glowfischdesignstudio.jsonte.utils.Semver;
 import com.stirante.justpipe.Pipe;
@@ -11,10 +12,8 @@ import org.json.JSONObject;
 
 import java.io.File;
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Functions specific to Minecraft.
@@ -24,9 +23,10 @@ public class MinecraftFunctions {
     private static final String VANILLA_RP_UUID = "0575c61f-a5da-4b7f-9961-ffda2908861e";
     private static final String VANILLA_BP_UUID = "fe9f8597-5454-481a-8730-8d070a8e2e58";
 
+    private static final Map<String, PackIndex> INDEXES = new ConcurrentHashMap<>();
+
     private static String installDir = null;
-    private static NavigableMap<Semver, File> rpVersions = null;
-    private static NavigableMap<Semver, File> bpVersions = null;
+    private static volatile File packRoot = null;
 
     /**
      * Returns a path to the folder with Minecraft app. The value is cached after the first usage.
@@ -43,6 +43,11 @@ public class MinecraftFunctions {
     @JSONFunction
     @JSONUnsafe
     private static String getMinecraftInstallDir() {
+        return findInstallDir();
+    }
+
+    // Functions can be called from multiple threads, so the cached values are initialized under a lock
+    private static synchronized String findInstallDir() {
         if (installDir == null) {
             try {
                 String command = "powershell.exe (Get-AppxPackage -Name Microsoft.MinecraftUWP).InstallLocation";
@@ -71,10 +76,7 @@ public class MinecraftFunctions {
     @JSONFunction
     @JSONUnsafe
     private static String getLatestBPFile(String path) {
-        if (bpVersions == null) {
-            bpVersions = findPackVersions(true, VANILLA_BP_UUID);
-        }
-        return getLatestFile(path, bpVersions);
+        return getLatestFile(path, getBpIndex());
     }
 
     /**
@@ -92,10 +94,7 @@ public class MinecraftFunctions {
     @JSONFunction
     @JSONUnsafe
     private static String getLatestRPFile(String path) {
-        if (rpVersions == null) {
-            rpVersions = findPackVersions(false, VANILLA_RP_UUID);
-        }
-        return getLatestFile(path, rpVersions);
+        return getLatestFile(path, getRpIndex());
     }
 
     /**
@@ -113,10 +112,7 @@ public class MinecraftFunctions {
     @JSONFunction
     @JSONUnsafe
     private static JSONArray listLatestRPFiles(String path) {
-        if (rpVersions == null) {
-            rpVersions = findPackVersions(false, VANILLA_RP_UUID);
-        }
-        return new JSONArray(listLatestFile(path, rpVersions));
+        return new JSONArray(listLatestFile(path, getRpIndex()));
     }
 
     /**
@@ -134,69 +130,75 @@ public class MinecraftFunctions {
     @JSONFunction
     @JSONUnsafe
     private static JSONArray listLatestBPFiles(String path) {
-        if (bpVersions == null) {
-            bpVersions = findPackVersions(true, VANILLA_BP_UUID);
+        return new JSONArray(listLatestFile(path, getBpIndex()));
+    }
+
+    /**
+     * Sets the directory with vanilla packs, that contains <code>behavior_packs</code> and
+     * <code>resource_packs</code> directories. By default, packs are loaded from the Minecraft installation.
+     *
+     * @param dir The directory, or null to use the Minecraft installation.
+     */
+    public static void setPackRoot(File dir) {
+        packRoot = dir;
+    }
+
+    private static File getPackRoot() {
+        File root = packRoot;
+        if (root != null) {
+            return root;
+        }
+        String dir = findInstallDir();
+        if (dir == null || dir.isEmpty()) {
+            throw new JsonTemplatingException("Failed to get Minecraft install directory!");
         }
-        return new JSONArray(listLatestFile(path, bpVersions));
+        return new File(dir, "data");
     }
 
-    private static List<String> listLatestFile(String path, NavigableMap<Semver, File> versions) {
-        Map.Entry<Semver, File> entry = versions.firstEntry();
-        if (entry == null) {
+    private static PackIndex getRpIndex() {
+        return getIndex(new File(getPackRoot(), "resource_packs"), VANILLA_RP_UUID);
+    }
+
+    private static PackIndex getBpIndex() {
+        return getIndex(new File(getPackRoot(), "behavior_packs"), VANILLA_BP_UUID);
+    }
+
+    private static PackIndex getIndex(File packs, String uuid) {
+        // Each version is walked once and the index is shared by all threads. Failures aren't cached, so the packs
+        // are read again by the next call
+        return INDEXES.computeIfAbsent(packs.getAbsolutePath(),
+                k -> new PackIndex(new ArrayList<>(findPackVersions(packs, uuid).values())));
+    }
+
+    private static List<String> listLatestFile(String path, PackIndex index) {
+        if (index.isEmpty()) {
             throw new JsonTemplatingException("Failed to find the packs!");
         }
-        File base = entry.getValue().getParentFile();
-        List<String> result = new ArrayList<>();
-        do {
-            File f = new File(entry.getValue(), path);
-            if (!f.exists()) {
-                continue;
-            }
-            try {
-                List<File> files = Files.walk(f.toPath())
-                        .map(Path::toFile)
-                        .filter(File::isFile)
-                        .collect(Collectors.toList());
-                for (File file : files) {
-                    String relativePath = entry.getValue().toPath().relativize(file.toPath()).toString();
-                    result.removeIf(s -> s.endsWith(relativePath));
-                    result.add(base.toPath().relativize(file.toPath()).toString());
-                }
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
-        }
-        while ((entry = versions.higherEntry(entry.getKey())) != null);
-        return result.stream().map(s -> new File(base, s).getAbsolutePath()).collect(Collectors.toList());
+        return index.listLatestFiles(path);
     }
 
-    private static String getLatestFile(String path, NavigableMap<Semver, File> versions) {
-        Map.Entry<Semver, File> entry = versions.lastEntry();
-        if (entry == null) {
+    private static String getLatestFile(String path, PackIndex index) {
+        if (index.isEmpty()) {
             throw new JsonTemplatingException("Failed to find the the packs!");
         }
-        File result = new File(entry.getValue(), path);
-        while (!result.exists()) {
-            entry = versions.lowerEntry(entry.getKey());
-            if (entry == null) {
-                throw new JsonTemplatingException("Failed to find the file '" + path + "'");
-            }
-            result = new File(entry.getValue(), path);
+        String result = index.getLatestFile(path);
+        if (result == null) {
+            throw new JsonTemplatingException("Failed to find the file '" + path + "'");
         }
-        return result.getAbsolutePath();
+        return result;
     }
 
-    private static NavigableMap<Semver, File> findPackVersions(boolean isBehaviorPack, String uuid) {
-        File packs = new File(getMinecraftInstallDir() + "\\data\\" + (isBehaviorPack ? "behavior_packs" : "resource_packs") + "\\");
+    private static NavigableMap<Semver, File> findPackVersions(File packs, String uuid) {
         File[] files = packs.listFiles();
         if (files == null) {
             throw new JsonTemplatingException("Failed to get behavior packs folder!");
         }
         NavigableMap<Semver, File> versions = new TreeMap<>(Semver::compareTo);
         for (File file : files) {
-            if (file.isDirectory()) {
+            File manifest = new File(file, "manifest.json");
+            if (manifest.isFile()) {
                 try {
-                    JSONObject json = Pipe.from(new File(file, "manifest.json")).to(PipeExtensions.JSON_OBJECT);
+                    JSONObject json = Pipe.from(manifest).to(PipeExtensions.JSON_OBJECT);
                     if (json.has("header")) {
                         JSONObject header = json.getJSONObject("header");
                         if (header.has("uuid") &&
@@ -206,7 +208,7 @@ public class MinecraftFunctions {
                         }
                     }
                 } catch (IOException e) {
-                    e.printStackTrace();
+                    throw new JsonTemplatingException("Failed to read the pack manifest '" + manifest + "'", e);
                 }
             }
         }
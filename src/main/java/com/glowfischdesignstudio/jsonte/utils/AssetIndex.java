@@ -0,0 +1,285 @@
+package com.glowfischdesignstudio.jsonte.utils;
+
+import com.stirante.justpipe.Pipe;
+import com.stirante.justpipe.exception.RuntimeIOException;
+import org.json.JSONObject;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Index of image bounds and audio durations, so each asset is read once, even across builds when the index is saved.
+ * Only the headers are read and an entry is used only while the size and the modification time of the file match.
+ * <p>
+ * The index reads files directly instead of through {@link com.glowfischdesignstudio.jsonte.JsonProcessor#FILE_LOADER}.
+ */
+public class AssetIndex {
+    public static final String FILE_NAME = ".jsonte-assets.json";
+    private static final int VERSION = 1;
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Loads a saved index, or creates an empty one, if the file doesn't exist or is invalid.
+     *
+     * @param file The saved index.
+     * @return The index
+     */
+    public static AssetIndex load(File file) {
+        AssetIndex index = new AssetIndex();
+        if (file.isFile()) {
+            try {
+                JSONObject saved = Pipe.from(file).to(PipeExtensions.JSON_OBJECT);
+                if (saved.optInt("version") == VERSION) {
+                    JSONObject assets = saved.getJSONObject("assets");
+                    for (String path : assets.keySet()) {
+                        index.entries.put(path, Entry.fromJson(assets.getJSONObject(path)));
+                    }
+                }
+            } catch (Exception e) {
+                System.err.println("Ignoring invalid asset index: " + e.getMessage());
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Saves the entries of files, that haven't changed since they were read.
+     *
+     * @param file The file to save the index to.
+     */
+    public void save(File file) {
+        JSONObject assets = new JSONObject();
+        for (Map.Entry<String, Entry> e : entries.entrySet()) {
+            try {
+                if (e.getValue().matches(Files.readAttributes(Paths.get(e.getKey()), BasicFileAttributes.class))) {
+                    assets.put(e.getKey(), e.getValue().toJson());
+                }
+            } catch (IOException ignored) {
+                // The file doesn't exist anymore
+            }
+        }
+        JSONObject index = new JSONObject()
+                .put("version", VERSION)
+                .put("assets", assets);
+        RuntimeIOException.wrap(() -> Pipe.from(index.toString()).to(file));
+    }
+
+    /**
+     * Returns the bounds of an image. Images, that aren't PNG or JPG files, or have unexpected headers, are decoded
+     * whole.
+     *
+     * @param path Path to the image.
+     * @return The width and the height, or null, if the path isn't a file
+     * @throws IOException If the image could not be read
+     */
+    public Pair<Integer, Integer> getImageBounds(String path) throws IOException {
+        Path file = Paths.get(path).toAbsolutePath().normalize();
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        String key = file.toString();
+        Entry entry = entries.get(key);
+        if (entry != null && entry.matches(attributes) && entry.width != null) {
+            hits.incrementAndGet();
+            return new Pair<>(entry.width, entry.height);
+        }
+        misses.incrementAndGet();
+        Pair<Integer, Integer> bounds;
+        try (FileChannel channel = FileChannel.open(file)) {
+            bounds = ImageUtils.getBounds(new HeaderStream(channel));
+        } catch (IllegalArgumentException | IOException e) {
+            BufferedImage image;
+            try (InputStream in = Files.newInputStream(file)) {
+                image = ImageIO.read(in);
+            }
+            bounds = new Pair<>(image.getWidth(), image.getHeight());
+        }
+        Pair<Integer, Integer> result = bounds;
+        entries.compute(key, (k, old) -> Entry.of(old, attributes).withBounds(result.getKey(), result.getValue()));
+        return result;
+    }
+
+    /**
+     * Returns the duration of an audio file in seconds.
+     *
+     * @param path Path to the audio file.
+     * @return The duration, or null, if the path isn't a file
+     * @throws IOException If the file could not be read
+     */
+    public Double getAudioDuration(String path) throws IOException {
+        Path file = Paths.get(path).toAbsolutePath().normalize();
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        String key = file.toString();
+        Entry entry = entries.get(key);
+        if (entry != null && entry.matches(attributes) && entry.duration != null) {
+            hits.incrementAndGet();
+            return entry.duration;
+        }
+        misses.incrementAndGet();
+        double duration;
+        try (FileChannel channel = FileChannel.open(file)) {
+            duration = AudioUtils.getAudioInfo(new HeaderStream(channel)).duration;
+        }
+        entries.compute(key, (k, old) -> Entry.of(old, attributes).withDuration(duration));
+        return duration;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("size=%d, hits=%d, misses=%d", size(), getHits(), getMisses());
+    }
+
+    private static class Entry {
+        private final long size;
+        private final long modified;
+        private final Integer width;
+        private final Integer height;
+        private final Double duration;
+
+        private Entry(long size, long modified, Integer width, Integer height, Double duration) {
+            this.size = size;
+            this.modified = modified;
+            this.width = width;
+            this.height = height;
+            this.duration = duration;
+        }
+
+        /**
+         * Returns the entry, if it describes the same version of the file, or an empty entry for it.
+         */
+        private static Entry of(Entry entry, BasicFileAttributes attributes) {
+            if (entry != null && entry.matches(attributes)) {
+                return entry;
+            }
+            return new Entry(attributes.size(), attributes.lastModifiedTime().toMillis(), null, null, null);
+        }
+
+        private boolean matches(BasicFileAttributes attributes) {
+            return size == attributes.size() && modified == attributes.lastModifiedTime().toMillis();
+        }
+
+        private Entry withBounds(int width, int height) {
+            return new Entry(size, modified, width, height, duration);
+        }
+
+        private Entry withDuration(double duration) {
+            return new Entry(size, modified, width, height, duration);
+        }
+
+        private JSONObject toJson() {
+            JSONObject json = new JSONObject()
+                    .put("size", size)
+                    .put("modified", modified);
+            if (width != null) {
+                json.put("width", width).put("height", height);
+            }
+            if (duration != null) {
+                json.put("duration", duration);
+            }
+            return json;
+        }
+
+        private static Entry fromJson(JSONObject json) {
+            return new Entry(json.getLong("size"), json.getLong("modified"),
+                    json.has("width") ? json.getInt("width") : null,
+                    json.has("height") ? json.getInt("height") : null,
+                    json.has("duration") ? json.getDouble("duration") : null);
+        }
+    }
+
+    /**
+     * Reads a file through a small buffer with positional reads, so skipped parts of the file are never read.
+     */
+    private static class HeaderStream extends InputStream {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(512);
+        // Position of the start of the buffer in the file
+        private long position = 0;
+
+        private HeaderStream(FileChannel channel) {
+            this.channel = channel;
+            buffer.limit(0);
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!fill()) {
+                return -1;
+            }
+            return buffer.get() & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            int read = 0;
+            // Reads as much as possible, like reading from a byte array
+            while (read < len && fill()) {
+                int n = Math.min(len - read, buffer.remaining());
+                buffer.get(b, off + read, n);
+                read += n;
+            }
+            return read == 0 ? -1 : read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            if (n <= 0) {
+                return 0;
+            }
+            if (n <= buffer.remaining()) {
+                buffer.position(buffer.position() + (int) n);
+                return n;
+            }
+            long current = position + buffer.position();
+            long target = Math.min(current + n, channel.size());
+            position = target;
+            buffer.clear().limit(0);
+            return target - current;
+        }
+
+        private boolean fill() throws IOException {
+            if (buffer.hasRemaining()) {
+                return true;
+            }
+            position += buffer.limit();
+            buffer.clear();
+            int read = channel.read(buffer, position);
+            buffer.flip();
+            return read > 0;
+        }
+    }
+}
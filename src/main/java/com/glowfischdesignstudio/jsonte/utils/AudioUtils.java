@@ -15,7 +15,18 @@ public class AudioUtils {
             {(byte) 0x66, (byte) 0x6D, (byte) 0x74};
 
     public static AudioInfo getAudioInfo(Pipe f) throws IOException {
-        try (DataInputStream in = new DataInputStream(f.getInputStream())) {
+        return getAudioInfo(f.getInputStream());
+    }
+
+    /**
+     * Reads information about an audio file from its header. Only the header is read and the stream is closed
+     * afterwards.
+     *
+     * @param stream The audio file.
+     * @return The information
+     */
+    public static AudioInfo getAudioInfo(InputStream stream) throws IOException {
+        try (DataInputStream in = new DataInputStream(stream)) {
             byte[] header = new byte[4];
             int read = in.read(header, 0, 4);
             if (read != 4) {
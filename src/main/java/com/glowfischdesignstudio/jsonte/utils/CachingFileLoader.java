@@ -0,0 +1,201 @@
+package com.glowfischdesignstudio.jsonte.utils;
+
+import com.stirante.justpipe.Pipe;
+import com.stirante.justpipe.exception.RuntimeIOException;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * A file loader, that keeps the content of loaded files in memory, so files used by many templates are read once. It
+ * can be used as {@link com.glowfischdesignstudio.jsonte.JsonProcessor#FILE_LOADER}.
+ * <p>
+ * A cached file is read again when its modification time or size changes. Threads loading the same file at the same
+ * time share a single read. The total size of cached files is limited and the least recently used files are evicted
+ * first, files larger than the limit aren't cached at all.
+ */
+public class CachingFileLoader implements Function<String, Pipe> {
+
+    private final long capacity;
+    private final Map<Path, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<Path, CompletableFuture<Entry>> loading = new ConcurrentHashMap<>();
+    private long size = 0;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong reloads = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Creates a new loader.
+     *
+     * @param capacity Maximum total size of cached files in bytes.
+     */
+    public CachingFileLoader(long capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Cache capacity must be positive!");
+        }
+        this.capacity = capacity;
+    }
+
+    @Override
+    public Pipe apply(String path) {
+        try {
+            Path file = Paths.get(path).toAbsolutePath().normalize();
+            if (!Files.isRegularFile(file)) {
+                // Fails the same way as loading without the cache
+                return Pipe.from(new File(path));
+            }
+            return Pipe.from(new ByteArrayInputStream(load(file)));
+        } catch (IOException e) {
+            throw new RuntimeIOException(e);
+        }
+    }
+
+    private byte[] load(Path file) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        long modified = attributes.lastModifiedTime().toMillis();
+        long length = attributes.size();
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.get(file);
+        }
+        if (entry != null && entry.modified == modified && entry.length == length) {
+            hits.incrementAndGet();
+            return entry.data;
+        }
+        misses.incrementAndGet();
+        if (entry != null) {
+            reloads.incrementAndGet();
+        }
+        CompletableFuture<Entry> task = new CompletableFuture<>();
+        CompletableFuture<Entry> existing = loading.putIfAbsent(file, task);
+        if (existing != null) {
+            try {
+                return existing.join().data;
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw e;
+            }
+        }
+        try {
+            // Read after the attributes, so a file changed in between is read again next time
+            entry = new Entry(Files.readAllBytes(file), modified, length);
+            store(file, entry);
+            task.complete(entry);
+            return entry.data;
+        } catch (IOException | RuntimeException e) {
+            task.completeExceptionally(e);
+            throw e;
+        } finally {
+            loading.remove(file, task);
+        }
+    }
+
+    private void store(Path file, Entry entry) {
+        synchronized (entries) {
+            Entry previous = entries.remove(file);
+            if (previous != null) {
+                size -= previous.data.length;
+            }
+            if (entry.data.length > capacity) {
+                return;
+            }
+            entries.put(file, entry);
+            size += entry.data.length;
+            Iterator<Entry> it = entries.values().iterator();
+            while (size > capacity && it.hasNext()) {
+                size -= it.next().data.length;
+                it.remove();
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Removes all files and resets the statistics.
+     */
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+            size = 0;
+        }
+        hits.set(0);
+        misses.set(0);
+        reloads.set(0);
+        evictions.set(0);
+    }
+
+    /**
+     * Returns the number of cached files.
+     */
+    public int count() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * Returns the total size of cached files in bytes.
+     */
+    public long size() {
+        synchronized (entries) {
+            return size;
+        }
+    }
+
+    public long getCapacity() {
+        return capacity;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Returns how many misses were caused by files, that changed after they were cached.
+     */
+    public long getReloads() {
+        return reloads.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("files=%d, size=%d/%d, hits=%d, misses=%d, reloads=%d, evictions=%d", count(), size(),
+                capacity, getHits(), getMisses(), getReloads(), getEvictions());
+    }
+
+    private static class Entry {
+        private final byte[] data;
+        private final long modified;
+        private final long length;
+
+        private Entry(byte[] data, long modified, long length) {
+            this.data = data;
+            this.modified = modified;
+            this.length = length;
+        }
+    }
+}
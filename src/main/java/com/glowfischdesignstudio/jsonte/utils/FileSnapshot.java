@@ -0,0 +1,125 @@
+package com.glowfischdesignstudio.jsonte.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Listings of directories read during a single build. Each directory is listed and each tree is walked once, when it's
+ * needed for the first time, and the results are shared by all templates. Files are expected not to change during the
+ * build, so a new snapshot should be used for every build.
+ * <p>
+ * Paths are compared as they are written, made absolute, so the results are the same as reading the file system
+ * directly.
+ */
+public class FileSnapshot {
+    private static final String[] EMPTY = new String[0];
+
+    private final Map<String, String[]> lists = new ConcurrentHashMap<>();
+    private final Map<String, String[]> trees = new ConcurrentHashMap<>();
+    private final Map<String, Boolean> directories = new ConcurrentHashMap<>();
+    private final Map<String, Pattern> filters = new ConcurrentHashMap<>();
+
+    /**
+     * Returns names of files in a directory, like {@link File#list()}.
+     *
+     * @param path Path to the directory.
+     * @return The names, or an empty array, if the path isn't a directory
+     */
+    public String[] list(String path) {
+        String key = new File(path).getAbsolutePath();
+        String[] list = lists.get(key);
+        if (list == null) {
+            list = new File(path).list();
+            if (list == null) {
+                list = EMPTY;
+            }
+            lists.putIfAbsent(key, list);
+        }
+        return list;
+    }
+
+    /**
+     * Returns paths of all files in a directory and its subdirectories, relative to the directory and separated with
+     * <code>/</code>. Directories themselves aren't included.
+     *
+     * @param path Path to the directory.
+     * @return The paths
+     * @throws IOException If the directory could not be read
+     */
+    public String[] walk(String path) throws IOException {
+        String key = new File(path).getAbsolutePath();
+        String[] tree = trees.get(key);
+        if (tree == null) {
+            Path root = new File(path).toPath();
+            List<String> files = new ArrayList<>();
+            try (Stream<Path> stream = Files.walk(root)) {
+                stream.forEach(p -> {
+                    if (!p.toFile().isDirectory()) {
+                        files.add(root.relativize(p).toString().replace('\\', '/'));
+                    }
+                });
+            }
+            tree = files.toArray(EMPTY);
+            trees.putIfAbsent(key, tree);
+        }
+        return tree;
+    }
+
+    /**
+     * Returns whether the path is a directory, like {@link File#isDirectory()}.
+     */
+    public boolean isDirectory(String path) {
+        return directories.computeIfAbsent(new File(path).getAbsolutePath(), p -> new File(p).isDirectory());
+    }
+
+    /**
+     * Returns whether the name matches the wildcard filter the same way as
+     * {@link org.apache.commons.io.FilenameUtils#wildcardMatch(String, String)}. Filters are compiled once.
+     *
+     * @param name   The name.
+     * @param filter The filter with <code>?</code> for any character and <code>*</code> for any number of characters.
+     * @return Whether the name matches
+     */
+    public boolean matches(String name, String filter) {
+        if (filter == null) {
+            return false;
+        }
+        return filters.computeIfAbsent(filter, FileSnapshot::compile).matcher(name).matches();
+    }
+
+    private static Pattern compile(String filter) {
+        StringBuilder regex = new StringBuilder();
+        StringBuilder literal = new StringBuilder();
+        for (int i = 0; i < filter.length(); i++) {
+            char c = filter.charAt(i);
+            if (c == '?' || c == '*') {
+                if (literal.length() > 0) {
+                    regex.append(Pattern.quote(literal.toString()));
+                    literal.setLength(0);
+                }
+                if (c == '?') {
+                    regex.append('.');
+                }
+                else if (!filter.startsWith("?", i + 1) && !filter.startsWith("*", i + 1)) {
+                    // Like in wildcardMatch, a star followed by a question mark doesn't match anything
+                    regex.append(".*");
+                }
+            }
+            else {
+                literal.append(c);
+            }
+        }
+        if (literal.length() > 0) {
+            regex.append(Pattern.quote(literal.toString()));
+        }
+        return Pattern.compile(regex.toString(), Pattern.DOTALL);
+    }
+}
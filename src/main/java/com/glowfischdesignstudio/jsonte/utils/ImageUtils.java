@@ -23,7 +23,17 @@ public class ImageUtils {
             {(byte) 0x4A, (byte) 0x46, (byte) 0x49, (byte) 0x46, (byte) 0x00};
 
     public static Pair<Integer, Integer> getBounds(Pipe f) throws IOException {
-        try (DataInputStream in = new DataInputStream(f.getInputStream())) {
+        return getBounds(f.getInputStream());
+    }
+
+    /**
+     * Reads the bounds of an image from its header. Only the header is read and the stream is closed afterwards.
+     *
+     * @param stream The image.
+     * @return The width and the height
+     */
+    public static Pair<Integer, Integer> getBounds(InputStream stream) throws IOException {
+        try (DataInputStream in = new DataInputStream(stream)) {
             byte[] header = new byte[4];
             int read = in.read(header, 0, 4);
             if (read != 4) {
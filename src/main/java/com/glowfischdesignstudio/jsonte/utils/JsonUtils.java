@@ -4,9 +4,10 @@ import org.json.JSONArray;
 import org.json.JSONObject;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.function.Consumer;
-import java.util.stream.Collectors;
 
 public class JsonUtils {
 
@@ -33,6 +34,73 @@ public class JsonUtils {
         }
     }
 
+    /**
+     * Returns the object without fields with null values, the same way as {@link #removeNulls(JSONObject)}. The object
+     * is not modified, only the objects and arrays containing nulls are copied and the rest is shared.
+     * @param obj The object to remove nulls from.
+     * @return The object without nulls, or the same object, if it doesn't contain any.
+     */
+    public static JSONObject withoutNulls(JSONObject obj) {
+        JSONObject result = null;
+        int i = 0;
+        for (String s : obj.keySet()) {
+            Object o = obj.opt(s);
+            Object value = withoutNullsValue(o);
+            if (value != o && result == null) {
+                result = new JSONObject();
+                int j = 0;
+                for (String key : obj.keySet()) {
+                    if (j++ == i) {
+                        break;
+                    }
+                    result.put(key, obj.opt(key));
+                }
+            }
+            if (result != null && value != null) {
+                result.put(s, value);
+            }
+            i++;
+        }
+        return result == null ? obj : result;
+    }
+
+    /**
+     * Returns the array without elements with null values, the same way as {@link #removeNulls(JSONArray)}. The array
+     * is not modified, only the objects and arrays containing nulls are copied and the rest is shared.
+     * @param arr The array to remove nulls from.
+     * @return The array without nulls, or the same array, if it doesn't contain any.
+     */
+    public static JSONArray withoutNulls(JSONArray arr) {
+        JSONArray result = null;
+        for (int i = 0; i < arr.length(); i++) {
+            Object o = arr.opt(i);
+            Object value = withoutNullsValue(o);
+            if (value != o && result == null) {
+                result = new JSONArray();
+                for (int j = 0; j < i; j++) {
+                    result.put(arr.opt(j));
+                }
+            }
+            if (result != null && value != null) {
+                result.put(value);
+            }
+        }
+        return result == null ? arr : result;
+    }
+
+    private static Object withoutNullsValue(Object o) {
+        if (o == JSONObject.NULL || (o instanceof String && o.equals("null"))) {
+            return null;
+        }
+        else if (o instanceof JSONObject) {
+            return withoutNulls((JSONObject) o);
+        }
+        else if (o instanceof JSONArray) {
+            return withoutNulls((JSONArray) o);
+        }
+        return o;
+    }
+
     private static <T> void removeNulls(Object o, T param, Consumer<T> remove) {
         if (o == JSONObject.NULL || (o instanceof String && o.equals("null"))) {
             remove.accept(param);
@@ -46,7 +114,7 @@ public class JsonUtils {
     }
 
     /**
-     * Merges fields from parent to template.
+     * Merges fields from parent to template. The parent is not modified and nothing from it is shared with the template.
      * @param template The template object.
      * @param parent The parent object.
      * @return merged object.
@@ -57,7 +125,7 @@ public class JsonUtils {
         }
         for (String s : parent.keySet()) {
             if (s.startsWith("$") && !s.equals("$comment")) {
-                template.put(s.substring(1), parent.get(s));
+                template.put(s.substring(1), copyJson(parent.get(s)));
             }
             else if (template.has(s)) {
                 if (template.get(s) == JSONObject.NULL) {
@@ -67,7 +135,6 @@ public class JsonUtils {
                     if (template.get(s) instanceof JSONArray) {
                         JSONArray arr = new JSONArray();
                         arr.put(parent.get(s));
-                        parent.put(s, arr);
                         merge(template.getJSONArray(s), arr);
                     }
                     else {
@@ -91,21 +158,111 @@ public class JsonUtils {
                 }
             }
             else if (parent.get(s) instanceof JSONObject) {
-                template.put(s, new JSONObject(parent.getJSONObject(s).toString()));
+                template.put(s, copyJson(parent.getJSONObject(s)));
+            }
+            else {
+                template.put(s, copyJson(parent.get(s)));
+            }
+        }
+        renameKeys(template);
+        return template;
+    }
+
+    /**
+     * Merges fields from parent to a copy of template, the same way as {@link #merge(JSONObject, JSONObject)}. Neither
+     * object is modified. Values, that aren't changed by merging, are shared with the template or the parent instead
+     * of being copied, so none of the objects can be modified afterwards.
+     * @param template The template object.
+     * @param parent The parent object.
+     * @return merged object.
+     */
+    public static JSONObject overlay(JSONObject template, JSONObject parent) {
+        if (template == parent) {
+            throw new IllegalArgumentException("Template and parent cannot be the same!");
+        }
+        JSONObject result = new JSONObject();
+        for (String s : template.keySet()) {
+            result.put(s, template.get(s));
+        }
+        for (String s : parent.keySet()) {
+            if (s.startsWith("$") && !s.equals("$comment")) {
+                result.put(s.substring(1), parent.get(s));
+            }
+            else if (result.has(s)) {
+                if (result.get(s) == JSONObject.NULL) {
+                    result.remove(s);
+                }
+                else if (parent.get(s) instanceof JSONObject) {
+                    if (result.get(s) instanceof JSONArray) {
+                        JSONArray arr = new JSONArray();
+                        arr.put(parent.get(s));
+                        result.put(s, concat(result.getJSONArray(s), arr));
+                    }
+                    else {
+                        result.put(s, overlay(result.getJSONObject(s), parent.getJSONObject(s)));
+                    }
+                }
+                else if (parent.get(s) instanceof JSONArray) {
+                    if (result.get(s) instanceof JSONArray) {
+                        result.put(s, concat(result.getJSONArray(s), parent.getJSONArray(s)));
+                    }
+                    else if (result.get(s) instanceof String && result.getString(s).equals("null")) {
+                        result.remove(s);
+                    }
+                    else {
+                        JSONArray arr = new JSONArray();
+                        arr.put(result.get(s));
+                        result.put(s, concat(arr, parent.getJSONArray(s)));
+                    }
+                }
             }
             else {
-                template.put(s, parent.get(s));
+                result.put(s, parent.get(s));
+            }
+        }
+        renameKeys(result);
+        return result;
+    }
+
+    /**
+     * Creates an array with the elements of both arrays, the elements are shared.
+     */
+    private static JSONArray concat(JSONArray first, JSONArray second) {
+        JSONArray result = new JSONArray();
+        for (int i = 0; i < first.length(); i++) {
+            result.put(first.opt(i));
+        }
+        for (int i = 0; i < second.length(); i++) {
+            result.put(second.opt(i));
+        }
+        return result;
+    }
+
+    /**
+     * Removes the <code>$</code> from names of fields, that start with it, except for <code>$comment</code>. A field
+     * without it is replaced and the renamed fields are moved to the end, in their order.
+     */
+    private static void renameKeys(JSONObject obj) {
+        List<String> keys = null;
+        for (String s : obj.keySet()) {
+            if (s.startsWith("$") && !s.equals("$comment")) {
+                if (keys == null) {
+                    keys = new ArrayList<>();
+                }
+                keys.add(s);
             }
         }
-        template.keySet().stream().filter(s -> s.startsWith("$") && !s.equals("$comment")).collect(Collectors.toList()).forEach(s -> {
+        if (keys == null) {
+            return;
+        }
+        for (String s : keys) {
             String name = s.substring(1);
-            if (template.has(name)) {
-                template.remove(name);
+            if (obj.has(name)) {
+                obj.remove(name);
             }
-            template.put(name, template.get(s));
-            template.remove(s);
-        });
-        return template;
+            obj.put(name, obj.get(s));
+            obj.remove(s);
+        }
     }
 
     /**
@@ -119,15 +276,7 @@ public class JsonUtils {
             throw new IllegalArgumentException("Template and parent cannot be the same!");
         }
         for (Object o : parent) {
-            if (o instanceof JSONObject) {
-                template.put(new JSONObject(o.toString()));
-            }
-            else if (o instanceof JSONArray) {
-                template.put(new JSONArray(o.toString()));
-            }
-            else {
-                template.put(o);
-            }
+            template.put(copyJson(o));
         }
         return template;
     }
@@ -216,12 +365,44 @@ public class JsonUtils {
         return null;
     }
 
+    /**
+     * Creates a deep copy of a JSON value. Objects and arrays are copied, lists and maps are copied into arrays and
+     * objects, other values are immutable and returned as they are.
+     * @param obj The value to copy.
+     * @return The copy.
+     */
     public static Object copyJson(Object obj) {
         if (obj instanceof JSONObject) {
-            return new JSONObject(obj.toString());
+            JSONObject src = (JSONObject) obj;
+            JSONObject copy = new JSONObject();
+            for (String key : src.keySet()) {
+                copy.put(key, copyJson(src.opt(key)));
+            }
+            return copy;
         }
         if (obj instanceof JSONArray) {
-            return new JSONArray(obj.toString());
+            JSONArray src = (JSONArray) obj;
+            JSONArray copy = new JSONArray();
+            for (int i = 0; i < src.length(); i++) {
+                copy.put(copyJson(src.opt(i)));
+            }
+            return copy;
+        }
+        if (obj instanceof Map) {
+            JSONObject copy = new JSONObject();
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) obj).entrySet()) {
+                if (entry.getValue() != null) {
+                    copy.put(String.valueOf(entry.getKey()), copyJson(entry.getValue()));
+                }
+            }
+            return copy;
+        }
+        if (obj instanceof Collection) {
+            JSONArray copy = new JSONArray();
+            for (Object o : (Collection<?>) obj) {
+                copy.put(o == null ? JSONObject.NULL : copyJson(o));
+            }
+            return copy;
         }
         return obj;
     }
@@ -0,0 +1,194 @@
+package com.glowfischdesignstudio.jsonte.utils;
+
+import com.glowfischdesignstudio.jsonte.exception.JsonTemplatingException;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Index of files in layered directories, like versions of a vanilla pack, where files of newer versions override files
+ * of older ones. Every version is walked once, when the index is created, so files are looked up without checking
+ * each version. The index can't be modified and can be used from multiple threads.
+ * <p>
+ * Links to directories aren't followed while walking the versions. Paths, that aren't in the index, for example
+ * because the file system ignores case, are looked up in the file system.
+ */
+public class PackIndex {
+    private final List<File> versions;
+    private final List<Layer> layers;
+    // Relative path to index of the newest version, that contains it
+    private final Map<Path, Integer> latest;
+
+    /**
+     * Creates an index of the versions.
+     *
+     * @param versions Directories of the versions, from the oldest to the newest.
+     * @throws JsonTemplatingException If a version could not be walked
+     */
+    public PackIndex(List<File> versions) {
+        this.versions = List.copyOf(versions);
+        List<Layer> layers = new ArrayList<>();
+        Map<Path, Integer> latest = new HashMap<>();
+        for (int i = 0; i < this.versions.size(); i++) {
+            Layer layer = new Layer(this.versions.get(i).toPath());
+            layers.add(layer);
+            for (Path path : layer.entries.keySet()) {
+                latest.put(path, i);
+            }
+        }
+        this.layers = Collections.unmodifiableList(layers);
+        this.latest = Collections.unmodifiableMap(latest);
+    }
+
+    public boolean isEmpty() {
+        return versions.isEmpty();
+    }
+
+    /**
+     * Returns an absolute path to the file or directory in the newest version, that contains it.
+     *
+     * @param path Path relative to the version directory.
+     * @return The absolute path, or null, if no version contains it
+     */
+    public String getLatestFile(String path) {
+        Path key = toKey(path);
+        Integer version = key != null ? latest.get(key) : null;
+        if (version != null) {
+            return new File(versions.get(version), path).getAbsolutePath();
+        }
+        for (int i = versions.size() - 1; i >= 0; i--) {
+            File file = new File(versions.get(i), path);
+            if (file.exists()) {
+                return file.getAbsolutePath();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns absolute paths to the latest versions of all files in a directory and its subdirectories. Files are
+     * ordered by the version, that contains their latest copy, from the oldest.
+     *
+     * @param path Path to the directory, relative to the version directory.
+     * @return The absolute paths
+     */
+    public List<String> listLatestFiles(String path) {
+        Path key = toKey(path);
+        if (key != null && !latest.containsKey(key)) {
+            key = null;
+        }
+        Map<Path, File> result = new LinkedHashMap<>();
+        for (int i = 0; i < versions.size(); i++) {
+            File version = versions.get(i);
+            List<Path> files = key != null ? layers.get(i).list(key) : walk(version, path);
+            for (Path file : files) {
+                // Moves files overridden by this version to the end
+                result.remove(file);
+                result.put(file, version);
+            }
+        }
+        return result.entrySet().stream()
+                .map(e -> new File(e.getValue(), e.getKey().toString()).getAbsolutePath())
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Returns the path as a key of the index, or null, if it can't be looked up in the index.
+     */
+    private static Path toKey(String path) {
+        Path key;
+        try {
+            key = new File(path).toPath();
+        } catch (InvalidPathException e) {
+            return null;
+        }
+        if (key.getRoot() != null) {
+            return null;
+        }
+        for (Path name : key) {
+            // Parent directories are resolved by the file system
+            if (name.toString().equals("..")) {
+                return null;
+            }
+        }
+        return key.normalize();
+    }
+
+    private static List<Path> walk(File version, String path) {
+        File dir = new File(version, path);
+        if (!dir.exists()) {
+            return Collections.emptyList();
+        }
+        Path root = version.toPath();
+        try (Stream<Path> stream = Files.walk(dir.toPath())) {
+            return stream.filter(p -> p.toFile().isFile())
+                    .map(root::relativize)
+                    .collect(Collectors.toList());
+        } catch (IOException | UncheckedIOException e) {
+            throw new JsonTemplatingException("Failed to list the directory '" + dir + "'", e);
+        }
+    }
+
+    private static class Layer {
+        // Files in the order they were walked, so files in a directory are next to each other
+        private final List<Path> files = new ArrayList<>();
+        // Relative path of a file or a directory to the range of files in it
+        private final Map<Path, int[]> entries = new HashMap<>();
+
+        private Layer(Path root) {
+            try {
+                Files.walkFileTree(root, new SimpleFileVisitor<>() {
+                    @Override
+                    public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                        entries.put(root.relativize(dir), new int[]{files.size(), files.size()});
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult postVisitDirectory(Path dir, IOException exc) {
+                        entries.get(root.relativize(dir))[1] = files.size();
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                        File f = file.toFile();
+                        Path relative = root.relativize(file);
+                        int index = files.size();
+                        if (attrs.isRegularFile() || f.isFile()) {
+                            files.add(relative);
+                            entries.put(relative, new int[]{index, index + 1});
+                        }
+                        else if (f.exists()) {
+                            // A link to a directory, that isn't walked
+                            entries.put(relative, new int[]{index, index});
+                        }
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFileFailed(Path file, IOException exc) throws IOException {
+                        // A partial index would hide files of this version
+                        throw exc;
+                    }
+                });
+            } catch (IOException e) {
+                throw new JsonTemplatingException("Failed to index the directory '" + root + "'", e);
+            }
+        }
+
+        private List<Path> list(Path path) {
+            int[] range = entries.get(path);
+            if (range == null) {
+                return Collections.emptyList();
+            }
+            return files.subList(range[0], range[1]);
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package com.glowfischdesignstudio.jsonte;
+
+import org.json.JSONObject;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BuildManifestTest {
+
+    @TempDir
+    File dir;
+    private File cache;
+    private File out;
+    private File template;
+    private File data;
+    private File output;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        cache = new File(dir, "cache");
+        assertTrue(cache.mkdir());
+        out = new File(dir, "out");
+        assertTrue(out.mkdir());
+        template = write(new File(dir, "a.templ"), "template");
+        data = write(new File(dir, "data.json"), "{}");
+        output = write(new File(out, "a.json"), "{}");
+    }
+
+    private static File write(File file, String content) throws IOException {
+        Files.writeString(file.toPath(), content);
+        return file;
+    }
+
+    /**
+     * Builds the template with a dependency on the data file and saves the manifest.
+     */
+    private int build(String options, File template, File... outputs) {
+        BuildManifest manifest = BuildManifest.load(cache, options);
+        JSONObject entry = manifest.createEntry("hash", Set.of(Dependencies.FILE + data.getPath()), List.of(outputs));
+        manifest.put(template, entry);
+        return manifest.save();
+    }
+
+    @Test
+    public void templateIsUpToDateAfterBuild() {
+        assertFalse(BuildManifest.load(cache, "options").isUpToDate(template, "hash"));
+        build("options", template, output);
+        BuildManifest manifest = BuildManifest.load(cache, "options");
+        assertTrue(manifest.isUpToDate(template, "hash"));
+        assertEquals(Set.of(Dependencies.FILE + data.getPath()), manifest.getDependencies(template));
+        assertEquals(List.of(output.getAbsoluteFile()), manifest.getOutputs(template));
+    }
+
+    @Test
+    public void changedInputsAreNotUpToDate() throws IOException {
+        build("options", template, output);
+        assertFalse(BuildManifest.load(cache, "options").isUpToDate(template, "other"));
+        assertFalse(BuildManifest.load(cache, "other").isUpToDate(template, "hash"));
+        write(data, "{\"a\": 1}");
+        assertFalse(BuildManifest.load(cache, "options").isUpToDate(template, "hash"));
+    }
+
+    @Test
+    public void missingOutputIsNotUpToDate() {
+        build("options", template, output);
+        assertTrue(output.delete());
+        assertFalse(BuildManifest.load(cache, "options").isUpToDate(template, "hash"));
+    }
+
+    @Test
+    public void changedOptionsKeepOutputs() {
+        build("options", template, output);
+        BuildManifest manifest = BuildManifest.load(cache, "other");
+        assertFalse(manifest.isUpToDate(template, "hash"));
+        assertEquals(List.of(output.getAbsoluteFile()), manifest.getOutputs(template));
+    }
+
+    @Test
+    public void templatesAreFoundFromAnyPath() {
+        build("options", template, output);
+        File other = new File(new File(dir, "sub"), "../a.templ");
+        assertTrue(BuildManifest.load(cache, "options").isUpToDate(other, "hash"));
+    }
+
+    @Test
+    public void removedTemplateRemovesOutputs() {
+        build("options", template, output);
+        assertTrue(template.delete());
+        assertEquals(1, BuildManifest.load(cache, "options").save());
+        assertFalse(output.exists());
+        assertTrue(BuildManifest.load(cache, "options").getOutputs(template).isEmpty());
+    }
+
+    @Test
+    public void templateNotPartOfBuildIsKept() {
+        build("options", template, output);
+        assertEquals(0, BuildManifest.load(cache, "options").save());
+        assertTrue(output.exists());
+        assertTrue(BuildManifest.load(cache, "options").isUpToDate(template, "hash"));
+    }
+
+    @Test
+    public void outputNotWrittenAnymoreIsRemoved() throws IOException {
+        File second = write(new File(out, "b.json"), "{}");
+        build("options", template, output, second);
+        build("options", template, output);
+        assertTrue(output.exists());
+        assertFalse(second.exists());
+    }
+
+    @Test
+    public void outputWrittenByAnotherTemplateIsKept() throws IOException {
+        File other = write(new File(dir, "b.templ"), "template");
+        build("options", template, output);
+        BuildManifest manifest = BuildManifest.load(cache, "options");
+        manifest.put(template, manifest.createEntry("hash", Collections.emptySet(), Collections.emptyList()));
+        manifest.put(other, manifest.createEntry("hash", Collections.emptySet(), List.of(output)));
+        manifest.save();
+        assertTrue(output.exists());
+    }
+
+    @Test
+    public void failedTemplateIsBuiltAgain() {
+        build("options", template, output);
+        BuildManifest manifest = BuildManifest.load(cache, "options");
+        manifest.fail(template);
+        manifest.save();
+        manifest = BuildManifest.load(cache, "options");
+        assertFalse(manifest.isUpToDate(template, "hash"));
+        assertEquals(List.of(output.getAbsoluteFile()), manifest.getOutputs(template));
+    }
+}
@@ -0,0 +1,116 @@
+package com.glowfischdesignstudio.jsonte;
+
+import com.glowfischdesignstudio.jsonte.exception.JsonTemplatingException;
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.json.JSONObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CompiledExpressionTest {
+    private static final JSONObject SCOPE = new JSONObject("{\"x\": 5, \"s\": \"text\", \"arr\": [1, 2, 3], " +
+            "\"obj\": {\"a\": 1, \"b\": 2}}");
+    private static final List<String> EXPRESSIONS = List.of(
+            "1 + 2 * 3",
+            "'a' + 1 + x",
+            "x > 3 ? 'big' : 'small'",
+            "true ? x : missing",
+            "false ? missing : 2 - 1",
+            "floor(2.7) + x",
+            "arr.map(v => v * 2 + 1)",
+            "obj.a + obj['b'] + arr[1 + 1]",
+            "missing ?? (1 + 1)",
+            "!(x == 5) || s == 'text'",
+            "floor('a')",
+            "arr[1 + 5]"
+    );
+
+    @AfterEach
+    public void tearDown() {
+        CompiledExpression.setInterpretOnly(false);
+    }
+
+    private static CompiledExpression compile(String src) {
+        JsonTemplateParser parser = new JsonTemplateParser(new CommonTokenStream(new JsonTemplateLexer(CharStreams.fromString(src))));
+        return new ExpressionCompiler().compile(parser.expression());
+    }
+
+    /**
+     * Returns the value of the expression as a string, or the message of the error.
+     */
+    private static String evaluate(CompiledExpression expression) {
+        Deque<Object> instances = new ArrayDeque<>();
+        instances.push(new JSONObject());
+        try {
+            return String.valueOf(expression.evaluate(new JSONObject(), SCOPE, instances, "#/test").getValue());
+        } catch (JsonTemplatingException e) {
+            return "error: " + e.getMessage();
+        }
+    }
+
+    @Test
+    public void hotExpressionIsOptimized() {
+        CompiledExpression expression = compile("x + 1");
+        for (int i = 1; i < CompiledExpression.getTierUpThreshold(); i++) {
+            evaluate(expression);
+        }
+        assertFalse(expression.isOptimized());
+        long optimized = CompiledExpression.getOptimizedCount();
+        evaluate(expression);
+        assertTrue(expression.isOptimized());
+        assertEquals(CompiledExpression.getTierUpThreshold(), expression.getEvaluationCount());
+        assertTrue(CompiledExpression.getOptimizedCount() > optimized);
+    }
+
+    @Test
+    public void interpretOnlyKeepsExpressionInterpreted() {
+        CompiledExpression.setInterpretOnly(true);
+        CompiledExpression expression = compile("x + 1");
+        for (int i = 0; i < CompiledExpression.getTierUpThreshold() * 2; i++) {
+            evaluate(expression);
+        }
+        assertFalse(expression.isOptimized());
+        assertEquals(CompiledExpression.getTierUpThreshold() * 2L, expression.getEvaluationCount());
+    }
+
+    @Test
+    public void optimizedResultsMatchInterpreter() {
+        for (String src : EXPRESSIONS) {
+            CompiledExpression.setInterpretOnly(true);
+            String interpreted = evaluate(compile(src));
+            CompiledExpression.setInterpretOnly(false);
+            CompiledExpression expression = compile(src);
+            String result = null;
+            for (int i = 0; i <= CompiledExpression.getTierUpThreshold(); i++) {
+                result = evaluate(expression);
+            }
+            assertTrue(expression.isOptimized(), src);
+            assertEquals(interpreted, result, src);
+        }
+    }
+
+    @Test
+    public void countIsExactFromMultipleThreads() throws InterruptedException {
+        CompiledExpression.setInterpretOnly(true);
+        CompiledExpression expression = compile("x + 1");
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(() -> {
+                for (int j = 0; j < 1000; j++) {
+                    evaluate(expression);
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(4000, expression.getEvaluationCount());
+    }
+}
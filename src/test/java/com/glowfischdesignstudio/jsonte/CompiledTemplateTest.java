@@ -0,0 +1,120 @@
+package com.glowfischdesignstudio.jsonte;
+
+import com.glowfischdesignstudio.jsonte.exception.JsonTemplatingException;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CompiledTemplateTest {
+
+    private static CompiledTemplate compile(String source) {
+        return CompiledTemplate.compile("test", source, Collections.emptyMap());
+    }
+
+    @Test
+    public void rendersWithDifferentScopes() throws Exception {
+        CompiledTemplate template = compile("{\"$template\": {\"a\": \"{{x}}\", \"b\": \"{{x}}_{{y}}\"}}");
+        Map<String, Object> first = template.render(new JSONObject().put("x", "1").put("y", "2"));
+        Map<String, Object> second = template.render(new JSONObject().put("x", "3").put("y", "4"));
+        assertEquals("{\"a\":\"1\",\"b\":\"1_2\"}", first.get("test").toString());
+        assertEquals("{\"a\":\"3\",\"b\":\"3_4\"}", second.get("test").toString());
+    }
+
+    @Test
+    public void syntaxErrorInValueFailsCompilation() {
+        JsonTemplatingException e = assertThrows(JsonTemplatingException.class,
+                () -> compile("{\"$template\": {\"a\": {\"b\": \"text {{(}}\"}}}"));
+        assertTrue(e.getMessage().contains("$template/a/b"), e.getMessage());
+    }
+
+    @Test
+    public void syntaxErrorInKeyFailsCompilation() {
+        assertThrows(JsonTemplatingException.class, () -> compile("{\"$template\": {\"{{?(}}\": {}}}"));
+    }
+
+    @Test
+    public void syntaxErrorInArrayActionFailsCompilation() {
+        assertThrows(JsonTemplatingException.class, () -> compile("{\"$template\": {\"a\": [\"{{(}}\"]}}"));
+        assertThrows(JsonTemplatingException.class, () -> compile("{\"$template\": {\"a\": [{\"{{#(}}\": 1}]}}"));
+    }
+
+    @Test
+    public void syntaxErrorInFilesFailsCompilation() {
+        assertThrows(JsonTemplatingException.class,
+                () -> compile("{\"$files\": {\"array\": \"(\", \"fileName\": \"a\"}, \"$template\": {}}"));
+        assertThrows(JsonTemplatingException.class,
+                () -> compile("{\"$files\": {\"array\": \"list\", \"fileName\": \"{{(}}\"}, \"$template\": {}}"));
+    }
+
+    @Test
+    public void stringsThatAreNeverRenderedAreNotChecked() throws Exception {
+        CompiledTemplate template = compile("{\"$comment\": \"{{(}}\", \"$scope\": {\"s\": \"{{(}}\"}, " +
+                "\"$template\": {\"$comment\": \"{{(}}\", \"a\": {\"$comment_1\": \"{{(}}\", \"b\": \"{{x}}\"}}}");
+        assertEquals("{\"a\":{\"b\":\"1\"}}", template.render(new JSONObject().put("x", "1")).get("test").toString());
+    }
+
+    @Test
+    public void valueWithSeveralExpressionsIsNotCompiledWhole() throws Exception {
+        CompiledTemplate template = compile("{\"$template\": {\"a\": \"{{x}} and {{x}}\"}}");
+        assertEquals("{\"a\":\"1 and 1\"}", template.render(new JSONObject().put("x", "1")).get("test").toString());
+    }
+
+    @Test
+    public void staticTemplateIsRenderedOnce() throws Exception {
+        CompiledTemplate template = compile("{\"$template\": {\"a\": [1, \"b\"]}}");
+        assertTrue(template.isStatic());
+        assertEquals("{\"a\":[1,\"b\"]}", template.render(new JSONObject()).get("test").toString());
+    }
+
+    @Test
+    public void staticTemplateOutputIsShared() throws Exception {
+        CompiledTemplate template = compile("{\"$template\": {\"a\": [1, \"b\"]}}");
+        assertSame(template.render(new JSONObject()).get("test"), template.render(new JSONObject()).get("test"));
+    }
+
+    @Test
+    public void staticPartsAreRenderedWhileCompiling() throws Exception {
+        CompiledTemplate template = compile("{\"$template\": {\"a\": \"{{x}}\", \"s\": {\"i\": 3, \"t\": \"k\"}}}");
+        JSONObject first = (JSONObject) template.render(new JSONObject().put("x", "1")).get("test");
+        JSONObject second = (JSONObject) template.render(new JSONObject().put("x", "2")).get("test");
+        assertEquals("{\"a\":\"1\",\"s\":{\"t\":\"k\",\"i\":3}}", first.toString());
+        assertEquals("2", second.get("a"));
+        assertSame(first.get("s"), second.get("s"));
+    }
+
+    @Test
+    public void filesReadStaticPartsRenderedWhileCompiling() throws Exception {
+        CompiledTemplate template = compile("{\"$files\": {\"array\": \"{{list}}\", \"fileName\": \"f{{value}}\"}, " +
+                "\"$template\": {\"v\": \"{{value}}\", \"s\": {\"i\": 3, \"t\": \"k\"}}}");
+        JSONObject scope = new JSONObject().put("list", new JSONArray("[1, 2]"));
+        Map<String, Object> first = template.render(scope);
+        Map<String, Object> second = template.render(scope);
+        Object shared = ((JSONObject) first.get("f1")).get("s");
+        assertSame(shared, ((JSONObject) first.get("f2")).get("s"));
+        assertSame(shared, ((JSONObject) second.get("f1")).get("s"));
+    }
+
+    @Test
+    public void rendersLikeProcessJson() throws Exception {
+        String[] sources = {
+                "{\"$template\": {\"a\": null, \"s\": {\"b\": null, \"c\": [1, null]}, \"x\": \"{{x}}\"}}",
+                "{\"$files\": {\"array\": \"{{list}}\", \"fileName\": \"f{{value}}\"}, " +
+                        "\"$template\": {\"v\": \"{{value}}\", \"s\": {\"i\": 3, \"n\": null}}}",
+                "{\"$template\": {\"{{#list}}\": {\"v\": \"{{value * 2}}\", \"s\": [1.5, {\"i\": 2}]}}}"
+        };
+        JSONObject scope = new JSONObject().put("x", 1).put("list", new JSONArray("[1, 2]"));
+        for (String source : sources) {
+            Map<String, Object> expected = JsonProcessor.processJson("test", source, scope, 0, Collections.emptyMap());
+            Map<String, Object> result = compile(source).render(scope);
+            assertEquals(expected.keySet(), result.keySet(), source);
+            for (String key : expected.keySet()) {
+                assertEquals(expected.get(key).toString(), result.get(key).toString(), source);
+            }
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package com.glowfischdesignstudio.jsonte;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DependenciesTest {
+
+    private static Set<Path> changed(String... paths) {
+        Set<Path> result = new HashSet<>();
+        for (String path : paths) {
+            result.add(Paths.get(path).toAbsolutePath().normalize());
+        }
+        return result;
+    }
+
+    private static boolean affects(String dependency, Set<Path> changed) {
+        return Dependencies.affects(dependency, changed, Collections.emptySet());
+    }
+
+    @Test
+    public void recordsOnlyWhileTracking() {
+        Dependencies.recordFile("a.json");
+        Set<String> dependencies = new HashSet<>();
+        Set<String> previous = Dependencies.track(dependencies);
+        try {
+            Dependencies.recordFile("a.json");
+            Dependencies.recordDirectory("dir");
+            Dependencies.recordTree("tree");
+            Dependencies.recordModule("module");
+        } finally {
+            Dependencies.track(previous);
+        }
+        Dependencies.recordFile("b.json");
+        assertEquals(Set.of("file:a.json", "dir:dir", "tree:tree", "module:module"), dependencies);
+    }
+
+    @Test
+    public void fileIsAffectedByItsChange() {
+        assertTrue(affects("file:data/a.json", changed("data/a.json")));
+        assertTrue(affects("file:data/../data/a.json", changed("data/a.json")));
+        assertFalse(affects("file:data/a.json", changed("data/b.json")));
+        assertFalse(affects("file:data/a.json", changed("data")));
+    }
+
+    @Test
+    public void directoryIsAffectedByChangesOfItsFiles() {
+        assertTrue(affects("dir:data", changed("data")));
+        assertTrue(affects("dir:data", changed("data/a.json")));
+        assertFalse(affects("dir:data", changed("data/sub/a.json")));
+        assertFalse(affects("dir:data", changed("other/a.json")));
+    }
+
+    @Test
+    public void treeIsAffectedByChangesOfAllItsFiles() {
+        assertTrue(affects("tree:data", changed("data")));
+        assertTrue(affects("tree:data", changed("data/sub/a.json")));
+        assertFalse(affects("tree:data", changed("database/a.json")));
+    }
+
+    @Test
+    public void moduleIsAffectedByItsChange() {
+        assertTrue(Dependencies.affects("module:a", Collections.emptySet(), Set.of("a")));
+        assertFalse(Dependencies.affects("module:a", changed("a"), Set.of("b")));
+    }
+}
@@ -0,0 +1,166 @@
+package com.glowfischdesignstudio.jsonte;
+
+import com.glowfischdesignstudio.jsonte.exception.JsonTemplatingException;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ExpressionTest {
+    private static final JSONObject SCOPE = new JSONObject("{\"x\": 5, \"value\": \"global\", \"index\": 9, " +
+            "\"arr\": [1, 2, 3], \"nested\": [[1, 2], [3]], \"obj\": {\"a\": 1, \"b\": 2}}");
+    private static final JSONObject EXTRA_SCOPE = new JSONObject("{\"x\": 7, \"index\": 2}");
+    private static final JSONObject THIS = new JSONObject("{\"x\": 11, \"t\": 1}");
+
+    private static Object eval(String expression) {
+        return eval(expression, EXTRA_SCOPE, THIS);
+    }
+
+    private static Object eval(String expression, JSONObject extraScope, JSONObject thisInstance) {
+        Deque<Object> instances = new ArrayDeque<>();
+        instances.push(thisInstance);
+        return JsonProcessor.resolve(expression, extraScope, SCOPE, instances, "#/test").getValue();
+    }
+
+    private static String error(String expression) {
+        return assertThrows(JsonTemplatingException.class, () -> eval(expression)).getMessage();
+    }
+
+    @Test
+    public void namesAreResolvedFromThisThenExtraThenGlobalScope() {
+        assertEquals(11, eval("x"));
+        assertEquals(7, eval("x", EXTRA_SCOPE, new JSONObject()));
+        assertEquals(5, eval("x", new JSONObject(), new JSONObject()));
+    }
+
+    @Test
+    public void thisAndValueAreTheCurrentInstance() {
+        assertSame(THIS, eval("this"));
+        assertSame(THIS, eval("value"));
+        assertEquals(1, eval("this.t"));
+    }
+
+    @Test
+    public void indexIsResolvedFromExtraScope() {
+        assertEquals(2, eval("index"));
+        assertEquals(9, eval("index", new JSONObject(), THIS));
+    }
+
+    @Test
+    public void lambdaParameterShadowsScope() {
+        assertEquals("[1,2,3]", eval("arr.map(x => x)").toString());
+        assertEquals("[1,2,3]", eval("arr.map(value => value)").toString());
+        assertEquals("[0,1,2]", eval("arr.map((x, index) => index)").toString());
+    }
+
+    @Test
+    public void innerLambdaParameterShadowsOuter() {
+        assertEquals("[[10,20],[30]]", eval("nested.map(x => x.map(x => x * 10))").toString());
+        assertEquals("[[1,1],[2]]", eval("nested.map((x, i) => x.map(y => i + 1))").toString());
+    }
+
+    @Test
+    public void thisIsNotALambdaParameter() {
+        assertEquals("[" + THIS + "," + THIS + "," + THIS + "]", eval("arr.map(this => this)").toString());
+    }
+
+    @Test
+    public void nullLambdaParameterFallsBackToScope() {
+        assertEquals("[11,1]", eval("[null, 1].map(x => x)").toString());
+    }
+
+    @Test
+    public void nullCoalescing() {
+        assertEquals(3, eval("missing ?? 3"));
+        assertEquals(11, eval("x ?? 3"));
+        assertEquals(4, eval("obj?.c ?? 4"));
+        assertEquals(1, eval("obj?.a ?? 4"));
+    }
+
+    @Test
+    public void memberOfMissingValue() {
+        assertEquals("Failed to resolve \"obj.c\" in  (#/test)", error("obj.c"));
+        assertEquals("Failed to resolve \"missing.a\" in  (#/test)", error("missing.a"));
+        assertNull(eval("obj?.c"));
+        assertNull(eval("missing?.a"));
+        assertNull(eval("?missing.a"));
+    }
+
+    @Test
+    public void memberOfValueWithoutFields() {
+        assertEquals("Trying to access field from a number (#/test)", error("x.a"));
+        assertEquals("Trying to access field from a string (#/test)", error("'s'.a"));
+        assertEquals("Trying to access field from an array (#/test)", error("arr.a"));
+    }
+
+    @Test
+    public void indexOfMissingValue() {
+        assertNull(eval("missing[0]"));
+        assertEquals("Array index out of bounds! (#/test)", error("arr[3]"));
+        assertEquals("Array index out of bounds! (#/test)", error("arr[-1]"));
+        assertEquals("Array index is not a number! (#/test)", error("arr['a']"));
+        assertEquals("Object does not have key \"c\"! (#/test)", error("obj['c']"));
+        assertEquals("Object index out of bounds! (#/test)", error("obj[2]"));
+        assertNull(eval("arr?[3]"));
+        assertNull(eval("obj?['c']"));
+    }
+
+    @Test
+    public void indexOfObjectReturnsKey() {
+        assertEquals("a", eval("obj[0]"));
+        assertEquals("b", eval("obj[1]"));
+        assertEquals(2, eval("obj['b']"));
+    }
+
+    @Test
+    public void arityErrors() {
+        assertEquals("Incorrect number of parameters passed to function 'floor'! (#/test)", error("floor()"));
+        assertEquals("Incorrect number of parameters passed to function 'floor'! (#/test)", error("floor(1, 2)"));
+        assertEquals("Incorrect number of parameters passed to function 'map'! (#/test)", error("arr.map()"));
+        assertEquals("Function 'floor' got unexpected params. Expected floor(<Number>), but got (<String>) (#/test)",
+                error("floor('a')"));
+        assertEquals("Function 'nope' not found! (#/test)", error("nope(1)"));
+        // Fails inside of the function, which returns null
+        assertNull(eval("arr.map((a, b, c) => a)"));
+    }
+
+    @Test
+    public void failingFunctionReturnsNull() {
+        assertNull(eval("load('missing.json')"));
+        assertEquals("default", eval("load('missing.json') ?? 'default'"));
+    }
+
+    @Test
+    public void scopeIsNotModified() {
+        JSONArray arr = SCOPE.getJSONArray("arr");
+        eval("arr.map(x => x * 2)");
+        assertEquals("[1,2,3]", arr.toString());
+    }
+
+    @Test
+    public void loadedFileIsSharedAndNotModified(@TempDir Path dir) throws Exception {
+        Path file = dir.resolve("data.json");
+        String content = "{\"list\":[3,1,2],\"obj\":{\"a\":null,\"b\":\"{{x}}\"}}";
+        Files.writeString(file, content);
+        String load = "load('" + file.toString().replace('\\', '/') + "')";
+        Object loaded = eval(load);
+        assertSame(loaded, eval(load));
+        String template = "{\"$template\": {\"all\": \"{{" + load + "}}\", " +
+                "\"list\": [\"{{" + load + ".list.sort()}}\", \"{{" + load + ".list.reverse()}}\", " +
+                "{\"{{#" + load + ".list}}\": \"{{value * 2}}\"}], " +
+                "\"{{?true}}\": \"{{" + load + ".obj}}\"}}";
+        String first = JsonProcessor.processJson("test", template, SCOPE, 0, Collections.emptyMap()).get("test").toString();
+        String second = JsonProcessor.processJson("test", template, SCOPE, 0, Collections.emptyMap()).get("test").toString();
+        assertEquals(first, second);
+        assertSame(loaded, eval(load));
+        assertEquals(content, loaded.toString());
+    }
+}
@@ -0,0 +1,84 @@
+package com.glowfischdesignstudio.jsonte;
+
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RenderContextTest {
+
+    private static JSONObject objectWithKeys(int count) {
+        JSONObject obj = new JSONObject();
+        for (int i = 0; i < count; i++) {
+            obj.put("k" + i, i);
+        }
+        return obj;
+    }
+
+    @Test
+    public void forkOfCompiledContextReadsPreparedNodes() {
+        JSONObject template = new JSONObject("{\"a\": \"{{x}}\", \"s\": {\"i\": 3}}");
+        RenderContext compiled = new RenderContext(Long.MAX_VALUE, new HashMap<>(), new HashMap<>());
+        compiled.prepare(template);
+        Object child = template.get("s");
+        RenderContext fork = RenderContext.withTimeout(0).withCompiled(compiled).fork().fork();
+        assertTrue(fork.isStatic(child));
+        assertSame(compiled.renderStatic(child), fork.renderStatic(child));
+    }
+
+    @Test
+    public void keysAreReturnedInOrder() {
+        RenderContext context = RenderContext.withTimeout(0);
+        for (int count : new int[]{1, 8, 9, 30}) {
+            JSONObject obj = objectWithKeys(count);
+            for (int i = 0; i < count; i++) {
+                assertEquals("k" + i, context.getKey(obj, obj.keySet(), i));
+            }
+        }
+    }
+
+    @Test
+    public void keyIndexIsRebuiltWhenKeysChange() {
+        RenderContext context = RenderContext.withTimeout(0);
+        JSONObject obj = objectWithKeys(20);
+        assertEquals("k19", context.getKey(obj, obj.keySet(), 19));
+        obj.put("added", 20);
+        assertEquals("added", context.getKey(obj, obj.keySet(), 20));
+        obj.remove("k5");
+        obj.put("other", 21);
+        assertEquals("k6", context.getKey(obj, obj.keySet(), 5));
+        assertEquals("other", context.getKey(obj, obj.keySet(), 20));
+    }
+
+    @Test
+    public void keysOfManyObjectsAreReturnedInOrder() {
+        RenderContext context = RenderContext.withTimeout(0);
+        Map<String, Object> map = new LinkedHashMap<>();
+        for (int i = 0; i < 20; i++) {
+            map.put("m" + i, i);
+        }
+        assertEquals("m3", context.getKey(map, map.keySet(), 3));
+        // More objects than indexes are kept
+        for (int i = 0; i < 200; i++) {
+            JSONObject obj = objectWithKeys(10);
+            assertEquals("k9", context.getKey(obj, obj.keySet(), 9));
+        }
+        assertEquals("m19", context.getKey(map, map.keySet(), 19));
+    }
+
+    @Test
+    public void objectIsIndexedInTemplate() throws Exception {
+        JSONObject scope = new JSONObject().put("obj", objectWithKeys(30));
+        String template = "{\"$template\": {\"keys\": [{\"{{#0..29 as i}}\": \"{{obj[i]}}\"}], \"values\": \"{{obj[obj[29]]}}\"}}";
+        JSONObject result = (JSONObject) JsonProcessor.processJson("test", template, scope, 0, new HashMap<>()).get("test");
+        assertEquals(30, result.getJSONArray("keys").length());
+        for (int i = 0; i < 30; i++) {
+            assertEquals("k" + i, result.getJSONArray("keys").get(i));
+        }
+        assertEquals(29, result.getInt("values"));
+    }
+}
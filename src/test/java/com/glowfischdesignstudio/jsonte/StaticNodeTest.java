@@ -0,0 +1,74 @@
+package com.glowfischdesignstudio.jsonte;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StaticNodeTest {
+
+    @Test
+    public void unchangedPartIsReturnedItself() {
+        JSONObject obj = new JSONObject("{\"a\": \"text\", \"b\": true, \"c\": [\"d\", {\"e\": false}]}");
+        StaticNode node = StaticNode.render(obj);
+        assertSame(obj, node.getRendered());
+        assertTrue(node.isUnchanged());
+    }
+
+    @Test
+    public void numbersBecomeFloats() {
+        assertEquals(3f, StaticNode.render(3).getRendered());
+        assertEquals(1.5f, StaticNode.render(1.5).getRendered());
+        assertEquals(12345678901f, StaticNode.render(12345678901L).getRendered());
+        Float f = 2.5f;
+        assertSame(f, StaticNode.render(f).getRendered());
+    }
+
+    @Test
+    public void numberWithSameTextIsUnchanged() {
+        // 1.5 is printed the same as a double and as a float, 3 isn't
+        assertTrue(StaticNode.render(1.5).isUnchanged());
+        assertFalse(StaticNode.render(3).isUnchanged());
+    }
+
+    @Test
+    public void changedFieldsAreMovedAfterUnchangedOnes() {
+        JSONObject obj = new JSONObject("{\"i\": 3, \"f\": 1.5, \"s\": \"k\", \"l\": 12345678901}");
+        StaticNode node = StaticNode.render(obj);
+        assertEquals("{\"f\":1.5,\"s\":\"k\",\"i\":3,\"l\":1.23456788E10}", node.getRendered().toString());
+        assertFalse(node.isUnchanged());
+        assertEquals("{\"i\":3,\"f\":1.5,\"s\":\"k\",\"l\":12345678901}", obj.toString());
+    }
+
+    @Test
+    public void fieldsWithSameTextAreNotMoved() {
+        JSONObject obj = new JSONObject("{\"f\": 1.5, \"s\": \"k\"}");
+        StaticNode node = StaticNode.render(obj);
+        assertSame(obj, node.getRendered());
+        assertTrue(node.isUnchanged());
+    }
+
+    @Test
+    public void arrayKeepsOrder() {
+        JSONArray arr = new JSONArray("[3, \"a\", 12345678901, {\"b\": 2}]");
+        StaticNode node = StaticNode.render(arr);
+        assertEquals("[3,\"a\",1.23456788E10,{\"b\":2}]", node.getRendered().toString());
+        assertEquals(3f, ((JSONArray) node.getRendered()).get(0));
+        assertEquals(2f, ((JSONArray) node.getRendered()).getJSONObject(3).get("b"));
+    }
+
+    @Test
+    public void staticAndVisitedObjectsAreRenderedTheSame() throws Exception {
+        String fields = "\"i\": 3, \"l\": 12345678901, \"f\": 1.5, \"s\": \"k\", \"b\": true, " +
+                "\"o\": {\"i\": 3, \"s\": \"k\"}, \"a\": [3, 1.5]";
+        String template = "{\"$template\": {\"static\": {" + fields + "}, \"visited\": {" + fields + ", \"x\": \"{{x}}\"}}}";
+        JSONObject result = (JSONObject) JsonProcessor.processJson("test", template, new JSONObject().put("x", 1), 0,
+                new HashMap<>()).get("test");
+        JSONObject visited = result.getJSONObject("visited");
+        visited.remove("x");
+        assertEquals(visited.toString(), result.getJSONObject("static").toString());
+    }
+}
@@ -0,0 +1,131 @@
+package com.glowfischdesignstudio.jsonte;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StringTemplateTest {
+    private static final Pattern EXPRESSION = Pattern.compile("\\{\\{(?:\\\\.|[^{}])+}}");
+
+    /**
+     * Returns the literals and expressions of a string, alternating and starting with a literal.
+     */
+    private static List<String> split(String s) {
+        StringTemplate string = StringTemplate.parse(s);
+        List<String> result = new ArrayList<>();
+        for (int i = 0; i < string.getExpressionCount(); i++) {
+            result.add(string.getLiteral(i));
+            result.add(string.getExpression(i));
+        }
+        result.add(string.getLiteral(string.getExpressionCount()));
+        return result;
+    }
+
+    private static List<String> splitWithPattern(String s) {
+        List<String> result = new ArrayList<>();
+        Matcher matcher = EXPRESSION.matcher(s);
+        int last = 0;
+        while (matcher.find()) {
+            result.add(s.substring(last, matcher.start()));
+            result.add(matcher.group());
+            last = matcher.end();
+        }
+        result.add(s.substring(last));
+        return result;
+    }
+
+    @Test
+    public void literalString() {
+        assertEquals(List.of("text"), split("text"));
+        assertTrue(StringTemplate.parse("text").isStatic());
+        assertFalse(StringTemplate.parse("text").isAction());
+    }
+
+    @Test
+    public void expressionBetweenText() {
+        assertEquals(List.of("a ", "{{b}}", " c"), split("a {{b}} c"));
+        assertFalse(StringTemplate.parse("a {{b}} c").isAction());
+    }
+
+    @Test
+    public void wholeStringIsAction() {
+        assertTrue(StringTemplate.parse("{{a}}").isAction());
+        assertTrue(StringTemplate.parse("{{#a as b}}").isAction());
+        assertFalse(StringTemplate.parse("{{a}} ").isAction());
+        assertFalse(StringTemplate.parse(" {{a}}").isAction());
+    }
+
+    @Test
+    public void adjacentExpressions() {
+        assertEquals(List.of("", "{{a}}", "", "{{b}}", ""), split("{{a}}{{b}}"));
+        assertFalse(StringTemplate.parse("{{a}}{{b}}").isAction());
+    }
+
+    @Test
+    public void unterminatedExpression() {
+        assertEquals(List.of("{{a"), split("{{a"));
+        assertEquals(List.of("x {{a} b"), split("x {{a} b"));
+        assertEquals(List.of("{{a ", "{{b}}", ""), split("{{a {{b}}"));
+        assertTrue(StringTemplate.parse("{{a").isStatic());
+    }
+
+    @Test
+    public void emptyExpression() {
+        assertEquals(List.of("{{}}"), split("{{}}"));
+        assertEquals(List.of("{{}}}"), split("{{}}}"));
+    }
+
+    @Test
+    public void extraClosingBraces() {
+        assertEquals(List.of("", "{{a}}", "}"), split("{{a}}}"));
+        assertEquals(List.of("", "{{a}}", "}}"), split("{{a}}}}"));
+        assertEquals(List.of("}}", "{{a}}", ""), split("}}{{a}}"));
+        assertFalse(StringTemplate.parse("{{a}}}").isAction());
+    }
+
+    @Test
+    public void nestedBraces() {
+        assertEquals(List.of("{", "{{a}}", ""), split("{{{a}}"));
+        assertEquals(List.of("{{ {b} }}"), split("{{ {b} }}"));
+        assertEquals(List.of("{{'{'}}"), split("{{'{'}}"));
+    }
+
+    @Test
+    public void escapedBraces() {
+        assertEquals(List.of("", "{{a\\}b}}", ""), split("{{a\\}b}}"));
+        assertTrue(StringTemplate.parse("{{a\\}b}}").isAction());
+        assertEquals(List.of("{{a\\", "{{b}}", ""), split("{{a\\{{b}}"));
+        // A backslash before a line terminator doesn't escape it, both are plain characters
+        assertEquals(List.of("", "{{a\\\n}}", ""), split("{{a\\\n}}"));
+        assertEquals(List.of("{{a\\\n"), split("{{a\\\n"));
+    }
+
+    @Test
+    public void sameAsPatternForAllShortStrings() {
+        char[] alphabet = {'{', '}', '\\', 'a', '\n'};
+        for (int length = 0; length <= 7; length++) {
+            int[] digits = new int[length];
+            char[] chars = new char[length];
+            while (true) {
+                for (int i = 0; i < length; i++) {
+                    chars[i] = alphabet[digits[i]];
+                }
+                String s = new String(chars);
+                assertEquals(splitWithPattern(s), split(s), s);
+                assertEquals(EXPRESSION.matcher(s).matches(), StringTemplate.parse(s).isAction(), s);
+                int i = 0;
+                while (i < length && ++digits[i] == alphabet.length) {
+                    digits[i++] = 0;
+                }
+                if (i == length) {
+                    break;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.glowfischdesignstudio.jsonte;
+
+import com.glowfischdesignstudio.jsonte.utils.JsonUtils;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+
+/**
+ * Measures CPU time and allocated bytes per operation for the templates in src/test/resources/dynamic. Templates, that
+ * depend on the file system, are left out.
+ * <p>
+ * Usage: {@code mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=com.glowfischdesignstudio.jsonte.TemplateBenchmark -Dexec.args="5000 render"}
+ * <p>
+ * The first argument is the number of iterations, that are run once to warm up and once to measure. The second
+ * argument is {@code render} to measure {@link JsonProcessor#processJson(String, String, JSONObject, long, java.util.Map)}
+ * or {@code copy} to measure {@link JsonUtils#copyJson(Object)} of the parsed template.
+ */
+public class TemplateBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        String mode = args.length > 1 ? args[1] : "render";
+        com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        File[] files = new File("src/test/resources/dynamic").listFiles(pathname -> pathname.getName().endsWith(".templ")
+                && !pathname.getName().startsWith("jsonFunctions") && !pathname.getName().startsWith("dynamicCopy"));
+        if (files == null) {
+            System.out.println("Run the benchmark from the project directory!");
+            return;
+        }
+        Arrays.sort(files, Comparator.comparing(File::getName));
+        for (File file : files) {
+            String name = file.getName().substring(0, file.getName().lastIndexOf('.'));
+            String source = Files.readString(file.toPath());
+            JSONObject parsed = new JSONObject(source);
+            Operation operation;
+            if (mode.equals("copy")) {
+                operation = () -> JsonUtils.copyJson(parsed);
+            }
+            else {
+                operation = () -> JsonProcessor.processJson(name, source, new JSONObject(), 0, new HashMap<>());
+            }
+            for (int i = 0; i < iterations; i++) {
+                operation.run();
+            }
+            long bytes = bean.getThreadAllocatedBytes(thread);
+            long time = bean.getCurrentThreadCpuTime();
+            for (int i = 0; i < iterations; i++) {
+                operation.run();
+            }
+            bytes = bean.getThreadAllocatedBytes(thread) - bytes;
+            time = bean.getCurrentThreadCpuTime() - time;
+            System.out.printf("%-24s %8.1f us/op %10d B/op%n", name, time / 1000.0 / iterations, bytes / iterations);
+        }
+    }
+
+    private interface Operation {
+        void run() throws Exception;
+    }
+}
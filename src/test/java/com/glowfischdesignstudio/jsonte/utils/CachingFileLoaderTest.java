@@ -0,0 +1,127 @@
+package com.glowfischdesignstudio.jsonte.utils;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CachingFileLoaderTest {
+
+    @TempDir
+    File dir;
+
+    private File write(String name, String content) throws IOException {
+        File file = new File(dir, name);
+        Files.writeString(file.toPath(), content);
+        return file;
+    }
+
+    private static String load(CachingFileLoader loader, File file) {
+        return loader.apply(file.getPath()).toString();
+    }
+
+    @Test
+    public void unchangedFileIsReadOnce() throws IOException {
+        CachingFileLoader loader = new CachingFileLoader(100);
+        File file = write("a.json", "{}");
+        assertEquals("{}", load(loader, file));
+        assertEquals("{}", load(loader, file));
+        assertEquals("{}", loader.apply(new File(dir, "sub/../a.json").getPath()).toString());
+        assertEquals(2, loader.getHits());
+        assertEquals(1, loader.getMisses());
+        assertEquals(1, loader.count());
+        assertEquals(2, loader.size());
+    }
+
+    @Test
+    public void fileWithChangedSizeIsReadAgain() throws IOException {
+        CachingFileLoader loader = new CachingFileLoader(100);
+        File file = write("a.json", "{}");
+        assertEquals("{}", load(loader, file));
+        write("a.json", "{\"a\": 1}");
+        assertEquals("{\"a\": 1}", load(loader, file));
+        assertEquals(0, loader.getHits());
+        assertEquals(2, loader.getMisses());
+        assertEquals(1, loader.getReloads());
+        assertEquals(1, loader.count());
+        assertEquals(8, loader.size());
+    }
+
+    @Test
+    public void fileWithChangedModificationTimeIsReadAgain() throws IOException {
+        CachingFileLoader loader = new CachingFileLoader(100);
+        File file = write("a.json", "[1]");
+        long modified = file.lastModified();
+        assertEquals("[1]", load(loader, file));
+        write("a.json", "[2]");
+        assertTrue(file.setLastModified(modified + 2000));
+        assertEquals("[2]", load(loader, file));
+        assertEquals(1, loader.getReloads());
+    }
+
+    @Test
+    public void leastRecentlyUsedFileIsEvicted() throws IOException {
+        CachingFileLoader loader = new CachingFileLoader(10);
+        File a = write("a.json", "aaaa");
+        File b = write("b.json", "bbbb");
+        File c = write("c.json", "cccc");
+        load(loader, a);
+        load(loader, b);
+        load(loader, a);
+        load(loader, c);
+        assertEquals(1, loader.getEvictions());
+        assertEquals(2, loader.count());
+        assertEquals(8, loader.size());
+        load(loader, a);
+        load(loader, c);
+        assertEquals(3, loader.getHits());
+        load(loader, b);
+        assertEquals(4, loader.getMisses());
+        assertEquals(0, loader.getReloads());
+    }
+
+    @Test
+    public void fileLargerThanCapacityIsNotCached() throws IOException {
+        CachingFileLoader loader = new CachingFileLoader(4);
+        File small = write("a.json", "[1]");
+        File large = write("b.json", "[1, 2]");
+        load(loader, small);
+        assertEquals("[1, 2]", load(loader, large));
+        assertEquals("[1, 2]", load(loader, large));
+        assertEquals(1, loader.count());
+        assertEquals(3, loader.size());
+        assertEquals(0, loader.getEvictions());
+        assertEquals(3, loader.getMisses());
+    }
+
+    @Test
+    public void missingFileFails() {
+        CachingFileLoader loader = new CachingFileLoader(100);
+        assertThrows(RuntimeException.class, () -> load(loader, new File(dir, "missing.json")));
+        assertEquals(0, loader.count());
+    }
+
+    @Test
+    public void clearRemovesFilesAndStatistics() throws IOException {
+        CachingFileLoader loader = new CachingFileLoader(100);
+        File file = write("a.json", "{}");
+        load(loader, file);
+        load(loader, file);
+        loader.clear();
+        assertEquals(0, loader.count());
+        assertEquals(0, loader.size());
+        assertEquals(0, loader.getHits());
+        load(loader, file);
+        assertEquals(1, loader.getMisses());
+        assertEquals(0, loader.getReloads());
+    }
+
+    @Test
+    public void capacityMustBePositive() {
+        assertThrows(IllegalArgumentException.class, () -> new CachingFileLoader(0));
+    }
+}
@@ -0,0 +1,71 @@
+package com.glowfischdesignstudio.jsonte.utils;
+
+import org.apache.commons.io.FilenameUtils;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FileSnapshotTest {
+
+    /**
+     * Returns all strings of the characters up to the length.
+     */
+    private static List<String> strings(String alphabet, int maxLength) {
+        List<String> result = new ArrayList<>();
+        result.add("");
+        int start = 0;
+        for (int length = 1; length <= maxLength; length++) {
+            int end = result.size();
+            for (int i = start; i < end; i++) {
+                for (char c : alphabet.toCharArray()) {
+                    result.add(result.get(i) + c);
+                }
+            }
+            start = end;
+        }
+        return result;
+    }
+
+    @Test
+    public void matchesLiteralAndWildcards() {
+        FileSnapshot snapshot = new FileSnapshot();
+        assertTrue(snapshot.matches("a.png", "*.png"));
+        assertTrue(snapshot.matches("a.png", "?.png"));
+        assertTrue(snapshot.matches("a.png", "a.png"));
+        assertFalse(snapshot.matches("a.png", "*.PNG"));
+        assertFalse(snapshot.matches("ab.png", "?.png"));
+        assertFalse(snapshot.matches("a.png", null));
+    }
+
+    @Test
+    public void regexCharactersAreLiteral() {
+        FileSnapshot snapshot = new FileSnapshot();
+        assertTrue(snapshot.matches("a+(b).json", "a+(b).*"));
+        assertFalse(snapshot.matches("aab.json", "a+b.*"));
+        assertTrue(snapshot.matches("a\\Eb", "a\\E*"));
+    }
+
+    @Test
+    public void starFollowedByWildcardMatchesNothing() {
+        FileSnapshot snapshot = new FileSnapshot();
+        assertTrue(snapshot.matches("a", "*?"));
+        assertFalse(snapshot.matches("ab", "*?"));
+        assertFalse(snapshot.matches("abc", "a*?"));
+        assertTrue(snapshot.matches("ab", "a**"));
+    }
+
+    @Test
+    public void sameAsWildcardMatchForAllShortFilters() {
+        FileSnapshot snapshot = new FileSnapshot();
+        List<String> names = strings("ab.\n", 4);
+        for (String filter : strings("ab.?*", 4)) {
+            for (String name : names) {
+                assertEquals(FilenameUtils.wildcardMatch(name, filter), snapshot.matches(name, filter),
+                        "\"" + name + "\" \"" + filter + "\"");
+            }
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package com.glowfischdesignstudio.jsonte.utils;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class JsonUtilsTest {
+    private static final String[] KEYS = {"a", "b", "$a", "$b", "$comment"};
+
+    /**
+     * Merges the objects the old way, by merging into a copy of the template.
+     */
+    private static JSONObject merged(JSONObject template, JSONObject parent) {
+        return JsonUtils.merge((JSONObject) JsonUtils.copyJson(template), parent);
+    }
+
+    private static JSONObject removedNulls(JSONObject obj) {
+        JSONObject copy = (JSONObject) JsonUtils.copyJson(obj);
+        JsonUtils.removeNulls(copy);
+        return copy;
+    }
+
+    private static void assertOverlay(String template, String parent) {
+        JSONObject t = new JSONObject(template);
+        JSONObject p = new JSONObject(parent);
+        JSONObject result = JsonUtils.overlay(t, p);
+        assertEquals(merged(t, p).toString(), result.toString(), template + " + " + parent);
+        assertEquals(template, t.toString());
+        assertEquals(parent, p.toString());
+    }
+
+    @Test
+    public void overlayMergesFields() {
+        assertOverlay("{\"a\":1,\"b\":{\"c\":2,\"d\":3}}", "{\"b\":{\"c\":4,\"e\":5},\"f\":6}");
+    }
+
+    @Test
+    public void overlayConcatenatesArrays() {
+        assertOverlay("{\"a\":[1],\"b\":2,\"c\":[3]}", "{\"a\":[4],\"b\":[5],\"c\":{\"d\":6}}");
+    }
+
+    @Test
+    public void overlayRemovesNullFields() {
+        assertOverlay("{\"a\":null,\"b\":\"null\",\"c\":1}", "{\"a\":1,\"b\":[2],\"c\":2}");
+    }
+
+    @Test
+    public void overlayReplacesDollarFields() {
+        assertOverlay("{\"a\":{\"b\":1},\"c\":2}", "{\"$a\":{\"d\":3},\"$comment\":\"x\"}");
+        assertOverlay("{\"$a\":1,\"a\":2,\"b\":3}", "{\"b\":4}");
+    }
+
+    @Test
+    public void overlaySharesUnchangedParts() {
+        JSONObject template = new JSONObject("{\"a\":{\"b\":1},\"c\":{\"d\":2}}");
+        JSONObject parent = new JSONObject("{\"c\":{\"e\":3},\"f\":{\"g\":4}}");
+        JSONObject result = JsonUtils.overlay(template, parent);
+        assertSame(template.get("a"), result.get("a"));
+        assertSame(parent.get("f"), result.get("f"));
+        assertNotSame(template.get("c"), result.get("c"));
+    }
+
+    @Test
+    public void overlayOfSameObjectFails() {
+        JSONObject obj = new JSONObject();
+        assertThrows(IllegalArgumentException.class, () -> JsonUtils.overlay(obj, obj));
+    }
+
+    @Test
+    public void withoutNullsReturnsSameObjectWithoutNulls() {
+        JSONObject obj = new JSONObject("{\"a\":1,\"b\":[{\"c\":\"d\"}]}");
+        assertSame(obj, JsonUtils.withoutNulls(obj));
+    }
+
+    @Test
+    public void withoutNullsCopiesOnlyPartsWithNulls() {
+        JSONObject obj = new JSONObject("{\"a\":{\"b\":1},\"c\":[1,null,\"null\",{\"d\":null}],\"e\":null,\"f\":2}");
+        JSONObject result = JsonUtils.withoutNulls(obj);
+        assertEquals(removedNulls(obj).toString(), result.toString());
+        assertEquals("{\"a\":{\"b\":1},\"c\":[1,{}],\"f\":2}", result.toString());
+        assertSame(obj.get("a"), result.get("a"));
+        assertEquals("{\"a\":{\"b\":1},\"c\":[1,null,\"null\",{\"d\":null}],\"e\":null,\"f\":2}", obj.toString());
+    }
+
+    @Test
+    public void sameAsMergingCopiesForRandomObjects() {
+        Random random = new Random(1);
+        for (int i = 0; i < 10000; i++) {
+            JSONObject template = randomObject(random, 3);
+            JSONObject parent = randomObject(random, 3);
+            String templateJson = template.toString();
+            String parentJson = parent.toString();
+            assertEquals(removedNulls(template).toString(), JsonUtils.withoutNulls(template).toString(), templateJson);
+            String expected;
+            try {
+                expected = merged(template, parent).toString();
+            } catch (JSONException e) {
+                // Merging an object into a value fails either way
+                assertThrows(JSONException.class, () -> JsonUtils.overlay(template, parent));
+                continue;
+            }
+            assertEquals(expected, JsonUtils.overlay(template, parent).toString(), templateJson + " + " + parentJson);
+            assertEquals(templateJson, template.toString());
+            assertEquals(parentJson, parent.toString());
+        }
+    }
+
+    private static JSONObject randomObject(Random random, int depth) {
+        JSONObject obj = new JSONObject();
+        int length = random.nextInt(4);
+        for (int i = 0; i < length; i++) {
+            obj.put(KEYS[random.nextInt(KEYS.length)], randomValue(random, depth - 1));
+        }
+        return obj;
+    }
+
+    private static Object randomValue(Random random, int depth) {
+        switch (random.nextInt(depth > 0 ? 6 : 4)) {
+            case 0:
+                return JSONObject.NULL;
+            case 1:
+                return "null";
+            case 2:
+                return random.nextInt(3);
+            case 3:
+                return "s";
+            case 4:
+                return randomObject(random, depth);
+            default:
+                JSONArray arr = new JSONArray();
+                int length = random.nextInt(3);
+                for (int i = 0; i < length; i++) {
+                    arr.put(randomValue(random, depth - 1));
+                }
+                return arr;
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.glowfischdesignstudio.jsonte.utils;
+
+import com.glowfischdesignstudio.jsonte.exception.JsonTemplatingException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PackIndexTest {
+
+    @TempDir
+    File dir;
+    private File v1;
+    private File v2;
+    private File v3;
+    private PackIndex index;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        v1 = new File(dir, "v1");
+        v2 = new File(dir, "v2");
+        v3 = new File(dir, "v3");
+        write(v1, "entities/a.json");
+        write(v1, "entities/b.json");
+        write(v1, "entities/sub/c.json");
+        write(v1, "items/d.json");
+        write(v2, "entities/a.json");
+        write(v2, "entities/e.json");
+        write(v3, "entities/sub/c.json");
+        write(v3, "loot/f.json");
+        index = new PackIndex(List.of(v1, v2, v3));
+    }
+
+    private static void write(File version, String path) throws IOException {
+        File file = new File(version, path);
+        Files.createDirectories(file.getParentFile().toPath());
+        Files.writeString(file.toPath(), version.getName());
+    }
+
+    /**
+     * Returns the paths relative to the directory with the versions.
+     */
+    private List<String> relative(List<String> paths) {
+        return paths.stream()
+                .map(p -> dir.toPath().relativize(new File(p).toPath()).toString().replace('\\', '/'))
+                .collect(Collectors.toList());
+    }
+
+    @Test
+    public void newestVersionOverridesFile() {
+        assertEquals(new File(v2, "entities/a.json").getAbsolutePath(), index.getLatestFile("entities/a.json"));
+        assertEquals(new File(v1, "entities/b.json").getAbsolutePath(), index.getLatestFile("entities/b.json"));
+        assertEquals(new File(v3, "entities/sub/c.json").getAbsolutePath(), index.getLatestFile("entities/sub/c.json"));
+        assertNull(index.getLatestFile("entities/missing.json"));
+    }
+
+    @Test
+    public void directoryIsFoundInNewestVersion() {
+        assertEquals(new File(v3, "entities").getAbsolutePath(), index.getLatestFile("entities"));
+        assertEquals(new File(v1, "items").getAbsolutePath(), index.getLatestFile("items"));
+    }
+
+    @Test
+    public void pathsOutsideOfIndexAreLookedUpInFileSystem() {
+        assertEquals(new File(v2, "entities/../entities/e.json").getAbsolutePath(),
+                index.getLatestFile("entities/../entities/e.json"));
+        assertEquals(new File(v1, "./items/d.json").getAbsolutePath(), index.getLatestFile("./items/d.json"));
+    }
+
+    @Test
+    public void filesAreOrderedByVersionOfLatestCopy() {
+        assertEquals(List.of("v1/entities/b.json", "v2/entities/a.json", "v2/entities/e.json", "v3/entities/sub/c.json"),
+                relative(index.listLatestFiles("entities")));
+        assertEquals(List.of("v3/entities/sub/c.json"), relative(index.listLatestFiles("entities/sub")));
+        assertEquals(List.of("v3/loot/f.json"), relative(index.listLatestFiles("loot")));
+    }
+
+    @Test
+    public void listingOutsideOfIndexWalksFileSystem() {
+        assertEquals(List.of("v1/items/d.json"), relative(index.listLatestFiles("entities/../items")));
+        assertEquals(Collections.emptyList(), index.listLatestFiles("missing"));
+    }
+
+    @Test
+    public void emptyIndex() {
+        PackIndex empty = new PackIndex(Collections.emptyList());
+        assertTrue(empty.isEmpty());
+        assertFalse(index.isEmpty());
+        assertNull(empty.getLatestFile("entities/a.json"));
+    }
+
+    @Test
+    public void missingVersionFails() {
+        assertThrows(JsonTemplatingException.class, () -> new PackIndex(List.of(v1, new File(dir, "missing"))));
+    }
+}